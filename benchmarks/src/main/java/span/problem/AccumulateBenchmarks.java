@@ -0,0 +1,75 @@
+package span.problem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code ScoresAccumulator.add} over {@code rows} matches followed by {@code buildScoreboard}. The matches cycle
+ * through a fixed sample so that even the largest row counts need no per row memory up front.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccumulateBenchmarks {
+
+   static final int SAMPLE = 1 << 16;
+
+   @Param({"1000", "10000", "100000", "1000000", "10000000", "100000000"})
+   public long rows;
+
+   @Param({"10", "100", "10000", "1000000"})
+   public int teams;
+
+   private SpanProblem.TeamAndScoresPair[] pairs;
+   private byte[] bytes;
+   private int[] lineStarts;
+
+   @Setup
+   public void setUp() {
+      pairs = BenchmarkDatasets.pairs(SAMPLE, teams);
+      String[] lines = new String[SAMPLE];
+      for (int i = 0; i < SAMPLE; i++) {
+         lines[i] = BenchmarkDatasets.line(pairs[i]);
+      }
+      bytes = BenchmarkDatasets.bytes(lines);
+      lineStarts = new int[SAMPLE + 1];
+      for (int i = 0, position = 0; i < bytes.length; i++) {
+         if ('\n' == bytes[i]) {
+            lineStarts[++position] = i + 1;
+         }
+      }
+   }
+
+   @Benchmark
+   public SpanProblem.Scoreboard addAndBuildScoreboard() {
+      SpanProblem.ScoresAccumulator scoresAccumulator = new SpanProblem.ScoresAccumulator();
+      for (long row = 0; row < rows; row++) {
+         scoresAccumulator.add(pairs[(int) (row & (SAMPLE - 1))]);
+      }
+      return scoresAccumulator.buildScoreboard();
+   }
+
+   @Benchmark
+   public SpanProblem.Scoreboard acceptBytesAndBuildScoreboard() {
+      SpanProblem.ScoresAccumulator scoresAccumulator = new SpanProblem.ScoresAccumulator();
+      for (long row = 0; row < rows; row++) {
+         int line = (int) (row & (SAMPLE - 1));
+         SpanProblem.MatchLineParser.parseLine(bytes, lineStarts[line], lineStarts[line + 1] - 1, scoresAccumulator);
+      }
+      return scoresAccumulator.buildScoreboard();
+   }
+}
@@ -0,0 +1,102 @@
+package span.problem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded datasets shared by the benchmarks, so every run of a given size sees the same rows.
+ */
+final class BenchmarkDatasets {
+
+   static final long SEED = 0x5A4E;
+
+   private BenchmarkDatasets() {
+   }
+
+   static String[] teamNames(int teams) {
+      String[] names = new String[teams];
+      for (int i = 0; i < teams; i++) {
+         names[i] = String.format("Club %s", Integer.toString(i, 36).toUpperCase());
+      }
+      return names;
+   }
+
+   static SpanProblem.TeamAndScoresPair[] pairs(int count, int teams) {
+      SplittableRandom random = new SplittableRandom(SEED);
+      SpanProblem.Team[] all = new SpanProblem.Team[teams];
+      String[] names = teamNames(teams);
+      for (int i = 0; i < teams; i++) {
+         all[i] = new SpanProblem.Team(names[i]);
+      }
+      SpanProblem.TeamAndScoresPair[] pairs = new SpanProblem.TeamAndScoresPair[count];
+      for (int i = 0; i < count; i++) {
+         int left = random.nextInt(teams);
+         int right = (left + 1 + random.nextInt(teams - 1)) % teams;
+         pairs[i] = new SpanProblem.TeamAndScoresPair(
+            new SpanProblem.TeamAndScore(all[left], new SpanProblem.Score(random.nextInt(7))),
+            new SpanProblem.TeamAndScore(all[right], new SpanProblem.Score(random.nextInt(7))));
+      }
+      return pairs;
+   }
+
+   static String[] lines(int count, int teams) {
+      String[] lines = new String[count];
+      SpanProblem.TeamAndScoresPair[] pairs = pairs(count, teams);
+      for (int i = 0; i < count; i++) {
+         lines[i] = line(pairs[i]);
+      }
+      return lines;
+   }
+
+   static String line(SpanProblem.TeamAndScoresPair pair) {
+      StringBuilder stringBuilder = new StringBuilder();
+      pair.left.appendAsLiteral(stringBuilder);
+      stringBuilder.append(", ");
+      pair.right.appendAsLiteral(stringBuilder);
+      return stringBuilder.toString();
+   }
+
+   static byte[] bytes(String[] lines) {
+      return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+   }
+
+   /**
+    * A CSV of the given size in the temporary directory, generated on first use and reused by later trials.
+    */
+   static Path file(long rows, int teams) {
+      Path path = Paths.get(System.getProperty("java.io.tmpdir"), String.format("span-benchmark-%d-%d.csv", rows, teams));
+      if (Files.exists(path)) {
+         return path;
+      }
+      SplittableRandom random = new SplittableRandom(SEED);
+      String[] names = teamNames(teams);
+      try {
+         Path partial = Files.createTempFile(path.getParent(), "span-benchmark", ".partial");
+         try (BufferedWriter writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+            for (long row = 0; row < rows; row++) {
+               int left = random.nextInt(teams);
+               int right = (left + 1 + random.nextInt(teams - 1)) % teams;
+               writer.write(names[left]);
+               writer.write(' ');
+               writer.write(Integer.toString(random.nextInt(7)));
+               writer.write(", ");
+               writer.write(names[right]);
+               writer.write(' ');
+               writer.write(Integer.toString(random.nextInt(7)));
+               writer.write('\n');
+            }
+         }
+         Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return path;
+   }
+}
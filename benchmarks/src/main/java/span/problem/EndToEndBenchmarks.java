@@ -0,0 +1,77 @@
+package span.problem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole runs over a CSV file of {@code rows} rows, from reading the first byte to the prepared scoreboard.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmarks {
+
+   @Param({"1000", "10000", "100000", "1000000", "10000000", "100000000"})
+   public long rows;
+
+   @Param({"10", "100", "10000", "1000000"})
+   public int teams;
+
+   private Path path;
+
+   @Setup
+   public void setUp() {
+      path = BenchmarkDatasets.file(rows, teams);
+   }
+
+   @Benchmark
+   public List<String> handleInputStream() throws IOException {
+      try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(path))) {
+         return prepare(new SpanProblem().handleInputStream(inputStream));
+      }
+   }
+
+   @Benchmark
+   public List<String> handleInputStreamBytes() throws IOException {
+      try (InputStream inputStream = Files.newInputStream(path)) {
+         return prepare(new SpanProblem().handleInputStreamBytes(inputStream));
+      }
+   }
+
+   @Benchmark
+   public List<String> handleInputStreamPipelined() throws IOException {
+      try (InputStream inputStream = Files.newInputStream(path)) {
+         return prepare(new SpanProblem().handleInputStreamPipelined(inputStream));
+      }
+   }
+
+   @Benchmark
+   public List<String> handleFileChunked() {
+      return prepare(new SpanProblem().handleFileChunked(path));
+   }
+
+   private static List<String> prepare(Set<SpanProblem.ScanResult> scanResults) {
+      return scanResults.iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+   }
+}
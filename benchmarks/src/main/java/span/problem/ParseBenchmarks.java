@@ -0,0 +1,74 @@
+package span.problem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per row cost of turning a line into teams and scores; every invocation parses the same {@value #LINES} lines.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmarks {
+
+   static final int LINES = 1 << 12;
+
+   @Param({"10", "100", "10000", "1000000"})
+   public int teams;
+
+   private String[] lines;
+   private String[] segments;
+   private byte[] bytes;
+
+   @Setup
+   public void setUp() {
+      lines = BenchmarkDatasets.lines(LINES, teams);
+      segments = new String[LINES];
+      for (int i = 0; i < LINES; i++) {
+         segments[i] = lines[i].substring(0, lines[i].indexOf(','));
+      }
+      bytes = BenchmarkDatasets.bytes(lines);
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(LINES)
+   public void extractTeamAndScores(Blackhole blackhole) {
+      for (String line : lines) {
+         blackhole.consume(SpanProblem.extractTeamAndScores.apply(line));
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(LINES)
+   public void teamAndScoreParseFrom(Blackhole blackhole) {
+      for (String segment : segments) {
+         blackhole.consume(SpanProblem.TeamAndScore.parseFrom(segment));
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(LINES)
+   public void matchLineParser(Blackhole blackhole) {
+      SpanProblem.MatchLineParser.parseLines(bytes, 0, bytes.length,
+         (buffer, leftOffset, leftLength, leftPoints, rightOffset, rightLength, rightPoints) -> {
+            blackhole.consume(leftOffset + leftLength + leftPoints);
+            blackhole.consume(rightOffset + rightLength + rightPoints);
+         });
+   }
+}
@@ -0,0 +1,79 @@
+package span.problem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranking and rendering of a scoreboard holding {@code teams} teams, each having played about 30 matches.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RankBenchmarks {
+
+   @Param({"10", "100", "10000", "1000000"})
+   public int teams;
+
+   private SpanProblem.Scoreboard scoreboard;
+   private SpanProblem.LiveStandings liveStandings;
+   private String[] names;
+   private int query;
+
+   @Setup
+   public void setUp() {
+      liveStandings = new SpanProblem.LiveStandings();
+      for (SpanProblem.TeamAndScoresPair pair : BenchmarkDatasets.pairs(teams * 15, teams)) {
+         liveStandings.add(pair);
+      }
+      scoreboard = liveStandings.buildScoreboard();
+      names = BenchmarkDatasets.teamNames(teams);
+   }
+
+   @Benchmark
+   public List<String> prepareScoreboard() {
+      return scoreboard.prepareScoreboard();
+   }
+
+   @Benchmark
+   public int[] rankingSort() {
+      return SpanProblem.RankingSort.rank(scoreboard.teams, scoreboard.points);
+   }
+
+   @Benchmark
+   public void scoreboardWriter() throws IOException {
+      new SpanProblem.ScoreboardWriter(OutputStream.nullOutputStream()).write(scoreboard);
+   }
+
+   @Benchmark
+   public void scoreboardWriterTop10() throws IOException {
+      new SpanProblem.ScoreboardWriter(OutputStream.nullOutputStream()).write(scoreboard, 10);
+   }
+
+   @Benchmark
+   public List<String> liveStandingsTop10() {
+      return liveStandings.top(10);
+   }
+
+   @Benchmark
+   public int liveStandingsRankOf() {
+      query = (query + 1) % names.length;
+      return liveStandings.rankOf(names[query]);
+   }
+}
@@ -1,166 +1,5531 @@
 package span.problem;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.BiFunction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongSupplier;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
 
 public class SpanProblem {
 
    static final Predicate<String[]> hasArgs = args -> 0 < args.length;
 
+   //switched off with -Dspan.problem.instrumentation=false
+   static final boolean INSTRUMENTED = !"false".equals(System.getProperty("span.problem.instrumentation"));
+
+   static final Predicate<String[]> isFileMode = args -> 2 == args.length && "--file".equals(args[0]);
+
+   static final Predicate<String[]> isConvertMode = args -> 3 == args.length && "--convert".equals(args[0]);
+
+   static final Predicate<String[]> isStoreMode = args -> 2 == args.length && "--store".equals(args[0]);
+
+   static final Predicate<String[]> isTailMode = args -> 3 == args.length && "--tail".equals(args[0]);
+
+   static final Predicate<String[]> isFollowMode = args -> 3 == args.length && "--follow".equals(args[0]);
+
+   static final Predicate<String[]> isServeMode = args -> 2 == args.length && "--serve".equals(args[0]);
+
+   static final Predicate<String[]> isPartitionedMode = args -> 2 == args.length && "--partitioned".equals(args[0]);
+
+   static final Predicate<String[]> isLenientMode = args -> (2 == args.length || 3 == args.length) && "--lenient".equals(args[0]);
+
+   static final Predicate<String[]> isOffHeapMode = args -> (2 == args.length || 3 == args.length) && "--off-heap".equals(args[0]);
+
+   static final Predicate<String[]> isShardMode = args -> 3 == args.length && "--shard".equals(args[0]);
+
+   static final Predicate<String[]> isMergeMode = args -> 2 <= args.length && "--merge".equals(args[0]);
+
+   static final Predicate<String[]> isWindowMode = args -> (2 == args.length || 3 == args.length && "--keyed".equals(args[2])) && "--window".equals(args[0]);
+
+   static final Predicate<String[]> isPipelinedMode = args -> 1 == args.length && "--pipelined".equals(args[0]);
+
+   static final Predicate<String[]> isDedupeMode = args -> 1 <= args.length && args.length <= 3 && "--dedupe".equals(args[0]);
+
+   static final Predicate<String[]> isRulesMode = args -> (2 == args.length || 3 == args.length) && "--rules".equals(args[0]);
+
+   static final Predicate<String[]> isHistoryMode = args -> 3 == args.length && "--history".equals(args[0]);
+
+   static final Predicate<String[]> isHeadToHeadMode = args -> 4 == args.length && "--head-to-head".equals(args[0]);
+
+   static final Predicate<String[]> isBatchMode = args -> (2 == args.length || 3 == args.length && "--per-file".equals(args[2])) && "--batch".equals(args[0]);
+
+   static final int MIN_CHUNK_SIZE = 1 << 20;
+
+   //keeps each mapping well under the 2GB limit of a single MappedByteBuffer
+   static final int MAX_CHUNK_SIZE = 1 << 28;
+
    static final Supplier<Set<ScanResult>> newResultsSet = () -> new HashSet();
 
-   static final Function<String, Boolean> isValidRow = line -> {
-      return true;
-   };
+   static final Function<String, Boolean> isValidRow = line -> {
+      return true;
+   };
+
+   static final Function<String, String> normalise = line -> {
+      return line.trim();
+   };
+
+   static final Function<String, TeamAndScoresPair> extractTeamAndScores = line -> {
+      String[] segments = line.split(",");
+      if(2 != segments.length){
+         throw new RuntimeException(String.format("Malformed row <%s>", line));
+      }
+      TeamAndScore left = TeamAndScore.parseFrom(normalise.apply(segments[0]));
+      TeamAndScore right = TeamAndScore.parseFrom(normalise.apply(segments[1]));
+      return new TeamAndScoresPair(left, right);
+   };
+
+   public static void main(String[] args){
+      SpanProblem spanProblem = new SpanProblem();
+      if(isFileMode.test(args)){
+         spanProblem.handleFile(Paths.get(args[1]));
+         return;
+      }
+      if(isConvertMode.test(args)){
+         spanProblem.handleConvert(Paths.get(args[1]), Paths.get(args[2]));
+         return;
+      }
+      if(isStoreMode.test(args)){
+         spanProblem.handleStore(Paths.get(args[1]));
+         return;
+      }
+      if(isTailMode.test(args) || isFollowMode.test(args)){
+         spanProblem.handleTail(Paths.get(args[1]), Paths.get(args[2]), isFollowMode.test(args));
+         return;
+      }
+      if(isServeMode.test(args)){
+         spanProblem.handleServe(Integer.parseInt(args[1]));
+         return;
+      }
+      if(isPartitionedMode.test(args)){
+         spanProblem.handlePartitioned(Paths.get(args[1]));
+         return;
+      }
+      if(isLenientMode.test(args)){
+         spanProblem.handleLenient(Long.parseLong(args[1]), 3 == args.length ? Paths.get(args[2]) : null);
+         return;
+      }
+      if(isOffHeapMode.test(args)){
+         spanProblem.handleOffHeap(Paths.get(args[1]), 3 == args.length ? Paths.get(args[2]) : null);
+         return;
+      }
+      if(isShardMode.test(args)){
+         spanProblem.handleShard(Paths.get(args[1]), Paths.get(args[2]));
+         return;
+      }
+      if(isMergeMode.test(args)){
+         spanProblem.handleMerge(Arrays.stream(args, 1, args.length).map(Paths::get).collect(Collectors.toList()));
+         return;
+      }
+      if(isWindowMode.test(args)){
+         spanProblem.handleWindow(Long.parseLong(args[1]), 3 == args.length);
+         return;
+      }
+      if(isPipelinedMode.test(args)){
+         spanProblem.handlePipelined();
+         return;
+      }
+      if(isDedupeMode.test(args)){
+         List<String> options = Arrays.asList(args).subList(1, args.length);
+         boolean byMatchId = options.contains("--match-id");
+         spanProblem.handleDedupe(byMatchId, options.stream().filter(option -> !"--match-id".equals(option)).mapToLong(Long::parseLong).findFirst().orElse(0));
+         return;
+      }
+      if(isRulesMode.test(args)){
+         spanProblem.handleRules(ScoringRules.parse(args[1], 3 == args.length ? args[2] : null));
+         return;
+      }
+      if(isHistoryMode.test(args)){
+         MatchIndex matchIndex = spanProblem.handleFileIndexed(Paths.get(args[1]));
+         printMatches(matchIndex, args[2], matchIndex.matchesOf(args[2]));
+         return;
+      }
+      if(isHeadToHeadMode.test(args)){
+         MatchIndex matchIndex = spanProblem.handleFileIndexed(Paths.get(args[1]));
+         printMatches(matchIndex, args[2], matchIndex.headToHead(args[2], args[3]));
+         return;
+      }
+      if(isBatchMode.test(args)){
+         spanProblem.handleBatch(args[1], 3 == args.length);
+         return;
+      }
+      if(hasArgs.test(args)){
+         System.out.println(String.format("Not expecting any args - got <%s>", String.join(" ", args)));
+         return;
+      }
+      spanProblem.handleStdIn();
+   }
+
+   private void handleStdIn(){
+      InputStream inputStream = new BufferedInputStream(System.in, MatchLineParser.DEFAULT_BUFFER_SIZE);
+      Set<ScanResult> scanResults = GzipMembers.isGzip(inputStream)
+         ? this.handleGzipStream(inputStream)
+         : this.handleInputStreamBytes(inputStream);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleFile(Path path){
+      Set<ScanResult> scanResults = path.toString().endsWith(".gz")
+         ? this.handleGzipFile(path)
+         : this.handleFileChunked(path);
+
+      printScanResults(scanResults);
+   }
+
+   private void handlePartitioned(Path path){
+      Set<ScanResult> scanResults = this.handleFilePartitioned(path);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleLenient(long errorBudget, Path quarantine){
+      try (OutputStream quarantineStream = null == quarantine ? null : Files.newOutputStream(quarantine)) {
+         Set<ScanResult> scanResults = this.handleInputStreamLenient(System.in, quarantineStream, errorBudget);
+
+         printScanResults(scanResults);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   private void handleMerge(List<Path> partials){
+      Set<ScanResult> scanResults = this.handlePartials(partials);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleWindow(long span, boolean keyed){
+      Set<ScanResult> scanResults = this.handleInputStreamWindowed(new BufferedInputStream(System.in, MatchLineParser.DEFAULT_BUFFER_SIZE), span, keyed);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleDedupe(boolean byMatchId, long expectedMatches){
+      Set<ScanResult> scanResults = this.handleInputStreamDeduplicated(new BufferedInputStream(System.in, MatchLineParser.DEFAULT_BUFFER_SIZE), byMatchId, expectedMatches);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleRules(ScoringRules rules){
+      Set<ScanResult> scanResults = this.handleInputStreamWithRules(new BufferedInputStream(System.in, MatchLineParser.DEFAULT_BUFFER_SIZE), rules);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleBatch(String directoryOrGlob, boolean perFile){
+      Set<ScanResult> scanResults = this.handleFiles(directoryOrGlob, perFile);
+
+      printScanResults(scanResults);
+   }
+
+   private static void printMatches(MatchIndex matchIndex, String team, int[] matches){
+      for(int match : matches){
+         System.out.println(matchIndex.formatMatch(match));
+      }
+      System.out.println(matchIndex.recordOf(team, matches));
+   }
+
+   private void handlePipelined(){
+      Set<ScanResult> scanResults = this.handleInputStreamPipelined(System.in);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleOffHeap(Path path, Path spillDirectory){
+      this.handleFileOffHeap(path, spillDirectory, System.out);
+   }
+
+   /**
+    * Prints every scoreboard, headed by its partition if it has one and in partition order, to stdout and every rejected
+    * row, in line order, to stderr.
+    */
+   private static void printScanResults(Set<ScanResult> scanResults){
+      scanResults.stream()
+         .filter(ScanResult::isSuccess)
+         .map(ScanResult::asSuccess)
+         .sorted(Comparator.comparing(ScanResult.Success::getPartition, Comparator.nullsFirst(Comparator.naturalOrder())))
+         .forEach(success -> {
+            if(null != success.getPartition()){
+               System.out.println(String.format("%s:", success.getPartition()));
+            }
+            success.getScoreboard().printScoreboard();
+         });
+      scanResults.stream()
+         .filter(ScanResult::isFailure)
+         .map(ScanResult::asFailure)
+         .sorted(Comparator.comparingLong(ScanResult.Failure::getLineNumber))
+         .forEach(failure -> System.err.println(String.format("Rejected line <%d> at byte <%d>: %s",
+            failure.getLineNumber(), failure.getByteOffset(), failure.getReason())));
+   }
+
+   private void handleConvert(Path csv, Path store){
+      try {
+         long matches = MatchStore.convert(csv, store);
+         System.out.println(String.format("Converted <%d> matches from <%s> to <%s>", matches, csv, store));
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   private void handleStore(Path store){
+      Set<ScanResult> scanResults = this.handleMatchStore(store);
+
+      printScanResults(scanResults);
+   }
+
+   private void handleTail(Path csv, Path checkpoint, boolean follow){
+      try {
+         TailedFile tailedFile = new TailedFile(csv, checkpoint);
+         tailedFile.refresh().printScoreboard();
+         while(follow){
+            Thread.sleep(1000);
+            Scoreboard scoreboard = tailedFile.refresh();
+            if(0 < tailedFile.getLastRefreshBytes()){
+               System.out.println();
+               scoreboard.printScoreboard();
+            }
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private void handleServe(int port){
+      try {
+         StandingsServer standingsServer = new StandingsServer(port);
+         System.out.println(String.format("Serving standings on <%s>", standingsServer.getAddress()));
+         standingsServer.run();
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   public Set<ScanResult> handleInputStream(InputStream inputStream){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      TimedInputStream timedInputStream = new TimedInputStream(inputStream);
+      ScanProbe probe = INSTRUMENTED ? new ScanProbe(scoresAccumulator::getMatches, timedInputStream::getCount) : null;
+      Scanner scanner = new Scanner(null == probe ? inputStream : timedInputStream.withProbe(probe));
+
+      while(scanner.hasNext()){
+         String line = scanner.nextLine();
+         if(isValidRow.apply(line)){
+            TeamAndScoresPair teamAndScoresPair;
+            try {
+               teamAndScoresPair = extractTeamAndScores.apply(line);
+            } catch (RuntimeException e) {
+               throw MatchLineParser.rejected(e);
+            }
+            scoresAccumulator.add(teamAndScoresPair);
+         }
+      }
+      if(null != probe){
+         probe.publish();
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Same scoreboard as {@link #handleInputStream(InputStream)}, but the rows are parsed straight from the raw bytes
+    * of the stream through a reusable buffer, so no per-row strings, arrays or boxed scores are created.
+    */
+   public Set<ScanResult> handleInputStreamBytes(InputStream inputStream){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      parseBytes(inputStream, new MatchLineParser(), scoresAccumulator);
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Like {@link #handleInputStreamBytes(InputStream)}, but a row that cannot be parsed is set aside rather than failing
+    * the scan: its raw bytes go to the quarantine stream, if one is given, and it comes back as a
+    * {@link ScanResult.Failure} next to the {@link ScanResult.Success} of the rows that did parse. The scan aborts with a
+    * {@code RuntimeException} once more than {@code errorBudget} rows have been rejected. The quarantine stream is
+    * flushed but not closed.
+    */
+   public Set<ScanResult> handleInputStreamLenient(InputStream inputStream, OutputStream quarantine, long errorBudget){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      RejectedRows rejectedRows = new RejectedRows(quarantine, errorBudget);
+      try {
+         parseBytes(inputStream, new MatchLineParser().withQuarantine(rejectedRows), scoresAccumulator);
+      } finally {
+         rejectedRows.flush();
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      scanResults.addAll(rejectedRows.getFailures());
+      return scanResults;
+   }
+
+   /**
+    * Same scoreboard as {@link #handleInputStreamBytes(InputStream)}, with reading, parsing and scoring spread over
+    * several threads by a {@link FlowPipeline}, for streams that cannot be split like a file. Memory stays bounded by
+    * the batches in flight. The stream is not closed.
+    */
+   public Set<ScanResult> handleInputStreamPipelined(InputStream inputStream){
+      int processors = Runtime.getRuntime().availableProcessors();
+      int stages = Math.max(1, processors / 2);
+      return this.handleInputStreamPipelined(inputStream, stages, stages, FlowPipeline.DEFAULT_BATCH_SIZE);
+   }
+
+   Set<ScanResult> handleInputStreamPipelined(InputStream inputStream, int parsers, int shards, int batchSize){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator;
+      try {
+         scoresAccumulator = new FlowPipeline(parsers, shards, batchSize).run(inputStream);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Like {@link #handleInputStreamBytes(InputStream)}, but a match already seen is dropped, see
+    * {@link DeduplicatingSink}: by the id in a leading column when {@code byMatchId}
+    * ({@code <match id>, <team> <score>, <team> <score>}), otherwise by teams and scores. Seen matches are kept exactly,
+    * or when {@code expectedMatches} is positive in a Bloom filter of fixed size, sized for that many. The number of
+    * dropped rows is published as {@link StatsMBean#getDuplicateRows()}.
+    */
+   public Set<ScanResult> handleInputStreamDeduplicated(InputStream inputStream, boolean byMatchId, long expectedMatches){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      MatchFingerprints fingerprints = 0 < expectedMatches ? MatchFingerprints.bloom(expectedMatches) : MatchFingerprints.exact();
+      DeduplicatingSink deduplicatingSink = new DeduplicatingSink(scoresAccumulator, fingerprints, byMatchId);
+      //dropped rows were still read and parsed
+      parseBytes(inputStream, new MatchLineParser().withColumns(byMatchId ? 1 : 0), deduplicatingSink,
+         () -> scoresAccumulator.getMatches() + deduplicatingSink.getDuplicates());
+      if(INSTRUMENTED){
+         Stats.INSTANCE.duplicates(deduplicatingSink.getDuplicates());
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   private static void parseBytes(InputStream inputStream, MatchLineParser matchLineParser, ScoresAccumulator scoresAccumulator){
+      parseBytes(inputStream, matchLineParser, scoresAccumulator, scoresAccumulator::getMatches);
+   }
+
+   private static void parseBytes(InputStream inputStream, MatchLineParser matchLineParser, MatchSink sink, LongSupplier rowCounter){
+      try {
+         if(INSTRUMENTED){
+            CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+            ScanProbe probe = new ScanProbe(rowCounter, countingInputStream::getCount);
+            matchLineParser.withProbe(probe).parse(countingInputStream, sink);
+            probe.publish();
+         } else {
+            matchLineParser.parse(inputStream, sink);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Scores a gzip stream, inflated on its own thread into a small ring of reusable buffers which the parser drains, so
+    * inflating and parsing overlap.
+    */
+   public Set<ScanResult> handleGzipStream(InputStream inputStream){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      try (InputStream inflated = new PipelinedInputStream(new GZIPInputStream(inputStream, MatchLineParser.DEFAULT_BUFFER_SIZE))) {
+         parseBytes(inflated, new MatchLineParser(), scoresAccumulator);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Scores a gzip file. A file of several members, as written by pigz or by concatenating gzip files, is split at
+    * member boundaries and the pieces are inflated and parsed in parallel; otherwise it is read as by
+    * {@link #handleGzipStream(InputStream)}.
+    */
+   public Set<ScanResult> handleGzipFile(Path path){
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+         return this.handleGzipFile(fileChannel, gzipSegments(fileChannel.size()));
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   Set<ScanResult> handleGzipFile(FileChannel fileChannel, int segments) throws IOException {
+      Set<ScanResult> scanResults = newResultsSet.get();
+      Scoreboard scoreboard = accumulateGzipFile(fileChannel, segments).buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   private static ScoresAccumulator accumulateGzipFile(FileChannel fileChannel, int segments) throws IOException {
+      ScoresAccumulator scoresAccumulator = 1 < segments ? GzipMembers.scan(fileChannel, segments) : null;
+      if(null == scoresAccumulator){
+         scoresAccumulator = new ScoresAccumulator();
+         InputStream compressed = new BufferedInputStream(Channels.newInputStream(fileChannel.position(0)), MatchLineParser.DEFAULT_BUFFER_SIZE);
+         try (InputStream inflated = new PipelinedInputStream(new GZIPInputStream(compressed, MatchLineParser.DEFAULT_BUFFER_SIZE))) {
+            parseBytes(inflated, new MatchLineParser(), scoresAccumulator);
+         }
+      }
+      return scoresAccumulator;
+   }
+
+   /**
+    * Scores a binary match store written by {@link MatchStore#convert(Path, Path)} without parsing any text.
+    */
+   public Set<ScanResult> handleMatchStore(Path path){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      try {
+         MatchStore.replay(path, scoresAccumulator);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Ingests several streams at once, each on its own thread, into one shared accumulator and so one scoreboard.
+    * The streams are not closed.
+    */
+   public Set<ScanResult> handleInputStreams(List<InputStream> inputStreams){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ConcurrentScoresAccumulator scoresAccumulator = new ConcurrentScoresAccumulator();
+      int threads = Math.max(1, Math.min(inputStreams.size(), Runtime.getRuntime().availableProcessors()));
+      ExecutorService executorService = Executors.newFixedThreadPool(threads);
+      try {
+         List<Future<?>> futures = new ArrayList<>();
+         inputStreams.forEach(inputStream -> futures.add(executorService.submit(() -> {
+            try {
+               new MatchLineParser().parse(inputStream, scoresAccumulator);
+            } finally {
+               scoresAccumulator.release();
+            }
+            return null;
+         })));
+         for(Future<?> future : futures){
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         executorService.shutdownNow();
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Scores every file of a directory, or every file of a directory whose name matches a glob such as
+    * {@code /data/fixtures/2024-*.csv}, in this JVM on a bounded pool of workers, so thousands of small files cost an
+    * open and a parse each instead of a JVM start each. Files ending {@code .gz} are inflated. Gives one scoreboard for
+    * all the files or, per file, one scoreboard partitioned by the file name.
+    */
+   public Set<ScanResult> handleFiles(String directoryOrGlob, boolean perFile){
+      try {
+         return this.handleFiles(listFiles(directoryOrGlob), perFile, Runtime.getRuntime().availableProcessors());
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Each worker takes the next file off the list, parsing it with a parser it keeps for all its files, and scores it
+    * into an accumulator of its own, so files are neither contended for nor merged one by one.
+    */
+   Set<ScanResult> handleFiles(List<Path> files, boolean perFile, int workers){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScanResult[] fileResults = new ScanResult[files.size()];
+      AtomicInteger nextFile = new AtomicInteger();
+      int threads = Math.max(1, Math.min(files.size(), workers));
+      ExecutorService executorService = Executors.newFixedThreadPool(threads);
+      ScoresAccumulator scoresAccumulator = null;
+      try {
+         List<Future<ScoresAccumulator>> futures = new ArrayList<>();
+         for(int thread = 0; thread < threads; thread++){
+            futures.add(executorService.submit(() -> {
+               MatchLineParser matchLineParser = new MatchLineParser();
+               ScoresAccumulator workerAccumulator = new ScoresAccumulator();
+               for(int index; (index = nextFile.getAndIncrement()) < files.size();){
+                  Path file = files.get(index);
+                  ScoresAccumulator fileAccumulator = perFile ? new ScoresAccumulator() : workerAccumulator;
+                  //closing the GZIPInputStream as well releases its Inflater now rather than once it is collected
+                  try (InputStream fileStream = Files.newInputStream(file);
+                       InputStream inputStream = file.toString().endsWith(".gz") ? new GZIPInputStream(fileStream, MatchLineParser.DEFAULT_BUFFER_SIZE) : fileStream) {
+                     matchLineParser.parse(inputStream, fileAccumulator);
+                  } catch (IOException | RuntimeException e) {
+                     throw new RuntimeException(String.format("Cannot score <%s>", file), e);
+                  }
+                  if(perFile){
+                     fileResults[index] = new ScanResult.Success(file.getFileName().toString(), fileAccumulator.buildScoreboard());
+                  }
+               }
+               return workerAccumulator;
+            }));
+         }
+         for(Future<ScoresAccumulator> future : futures){
+            scoresAccumulator = null == scoresAccumulator ? future.get() : scoresAccumulator.merge(future.get());
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         executorService.shutdownNow();
+      }
+      if(perFile){
+         scanResults.addAll(Arrays.asList(fileResults));
+      } else {
+         scanResults.add(new ScanResult.Success(scoresAccumulator.buildScoreboard()));
+      }
+      return scanResults;
+   }
+
+   /**
+    * The regular files of the directory, or of the parent directory matching the glob in the last part of the path, in
+    * name order.
+    */
+   static List<Path> listFiles(String directoryOrGlob) throws IOException {
+      Path path = Paths.get(directoryOrGlob);
+      boolean isDirectory = Files.isDirectory(path);
+      Path directory = isDirectory ? path : null == path.getParent() ? Paths.get(".") : path.getParent();
+      PathMatcher glob = isDirectory ? file -> true : FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+      try (Stream<Path> listed = Files.list(directory)) {
+         return listed.filter(Files::isRegularFile).filter(file -> glob.matches(file.getFileName())).sorted().collect(Collectors.toList());
+      }
+   }
+
+   /**
+    * Memory maps the file, splits it into newline aligned chunks and parses each chunk on a fork-join worker into its
+    * own partial accumulator; the partials are merged pairwise as the tasks complete.
+    */
+   public Set<ScanResult> handleFileChunked(Path path){
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+         return this.handleFileChunked(fileChannel, chunkSize(fileChannel.size()));
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   Set<ScanResult> handleFileChunked(FileChannel fileChannel, int chunkSize) throws IOException {
+      Set<ScanResult> scanResults = newResultsSet.get();
+      Scoreboard scoreboard = accumulateChunked(fileChannel, chunkSize).buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * The chunk size to split a file of {@code size} bytes at: about four chunks per worker, so that workers finishing
+    * early pick up the rest, within {@link #MIN_CHUNK_SIZE} and {@link #MAX_CHUNK_SIZE}.
+    */
+   private static int chunkSize(long size){
+      int parallelism = ForkJoinPool.commonPool().getParallelism();
+      return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (parallelism * 4L) + 1));
+   }
+
+   /**
+    * The segments to look for gzip members in: one per worker, or more when a segment would exceed
+    * {@link #MAX_CHUNK_SIZE}, and just one without parallel workers.
+    */
+   private static int gzipSegments(long size){
+      int parallelism = ForkJoinPool.commonPool().getParallelism();
+      return 1 == parallelism ? 1 : (int) Math.max(parallelism, size / MAX_CHUNK_SIZE + 1);
+   }
+
+   private static ScoresAccumulator accumulateChunked(FileChannel fileChannel, int chunkSize) throws IOException {
+      return accumulateChunked(fileChannel, chunkSize, ScoresAccumulator::new);
+   }
+
+   private static ScoresAccumulator accumulateChunked(FileChannel fileChannel, int chunkSize, Supplier<ScoresAccumulator> newAccumulator) throws IOException {
+      long[] boundaries = FileChunk.split(fileChannel, chunkSize);
+      return ForkJoinPool.commonPool().invoke(
+         new FileChunk<>(fileChannel, boundaries, 0, boundaries.length - 1, newAccumulator, 0));
+   }
+
+   /**
+    * Like {@link #handleInputStreamBytes(InputStream)}, scoring and ranking by the given rules instead of 3/1/0 by
+    * points then name.
+    */
+   public Set<ScanResult> handleInputStreamWithRules(InputStream inputStream, ScoringRules rules){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = rules.newAccumulator();
+      parseBytes(inputStream, new MatchLineParser(), scoresAccumulator);
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Like {@link #handleFileChunked(Path)}, scoring and ranking by the given rules.
+    */
+   public Set<ScanResult> handleFileWithRules(Path path, ScoringRules rules){
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+         return this.handleFileWithRules(fileChannel, chunkSize(fileChannel.size()), rules);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   Set<ScanResult> handleFileWithRules(FileChannel fileChannel, int chunkSize, ScoringRules rules) throws IOException {
+      Set<ScanResult> scanResults = newResultsSet.get();
+      Scoreboard scoreboard = accumulateChunked(fileChannel, chunkSize, rules::newAccumulator).buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Scans the file as {@link #handleFileChunked(Path)} does, keeping a {@link MatchIndex} of its matches for team
+    * histories and head-to-heads.
+    */
+   public MatchIndex handleFileIndexed(Path path){
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+         return this.handleFileIndexed(fileChannel, chunkSize(fileChannel.size()));
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   MatchIndex handleFileIndexed(FileChannel fileChannel, int chunkSize) throws IOException {
+      return ((IndexingAccumulator) accumulateChunked(fileChannel, chunkSize, IndexingAccumulator::new)).buildIndex();
+   }
+
+   /**
+    * Like {@link #handleFileIndexed(Path)}, over a stream.
+    */
+   public MatchIndex handleInputStreamIndexed(InputStream inputStream){
+      IndexingAccumulator indexingAccumulator = new IndexingAccumulator();
+      parseBytes(inputStream, new MatchLineParser(), indexingAccumulator);
+      return indexingAccumulator.buildIndex();
+   }
+
+   /**
+    * Scores one shard of a sharded input, a plain or gzip file read as by {@link #handleFile}, and writes its totals as
+    * a {@link PartialScoreboard} for {@link #handlePartials(List)} to merge, in this or another process or machine.
+    */
+   public void handleShard(Path input, Path partial){
+      try (FileChannel fileChannel = FileChannel.open(input, StandardOpenOption.READ)) {
+         ScoresAccumulator scoresAccumulator;
+         if(input.toString().endsWith(".gz")){
+            scoresAccumulator = accumulateGzipFile(fileChannel, gzipSegments(fileChannel.size()));
+         } else {
+            scoresAccumulator = accumulateChunked(fileChannel, chunkSize(fileChannel.size()));
+         }
+         PartialScoreboard.write(scoresAccumulator, partial);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Merges any number of partial scoreboards, written by {@link #handleShard(Path, Path)} or
+    * {@link PartialScoreboard#write}, into the scoreboard of a single run over all of their shards.
+    */
+   public Set<ScanResult> handlePartials(List<Path> partials){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      try {
+         for(Path partial : partials){
+            PartialScoreboard.read(partial, scoresAccumulator);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Scores the file as {@link #handleFileChunked(Path)} does, but keeps team names and totals off the Java heap in an
+    * {@link OffHeapTeamTable}, so a table of hundreds of millions of teams adds nothing for the collector to trace. The
+    * table is held in direct memory, or in temporary files of {@code spillDirectory} when one is given so it may outgrow
+    * physical memory. There is no {@link Scoreboard} to return: the standings are written to {@code outputStream}, which
+    * is flushed but not closed.
+    */
+   public void handleFileOffHeap(Path path, Path spillDirectory, OutputStream outputStream){
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+         this.handleFileOffHeap(fileChannel, chunkSize(fileChannel.size()), spillDirectory, OffHeapMemory.defaultPageSize(spillDirectory), outputStream);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   void handleFileOffHeap(FileChannel fileChannel, int chunkSize, Path spillDirectory, int pageSize, OutputStream outputStream) throws IOException {
+      long[] boundaries = FileChunk.split(fileChannel, chunkSize);
+      try (OffHeapScoresAccumulator scoresAccumulator = ForkJoinPool.commonPool().invoke(new FileChunk<>(fileChannel, boundaries,
+         0, boundaries.length - 1, () -> new OffHeapScoresAccumulator(spillDirectory, pageSize), 0))) {
+         scoresAccumulator.writeStandings(outputStream);
+      }
+   }
+
+   /**
+    * Standings of the last window of the stream, see {@link WindowedStandings}: the matches within {@code span} of the
+    * latest one, counted in matches, or when {@code keyed} in the units of a leading round, timestamp or date column
+    * ({@code <key>, <team> <score>, <team> <score>}).
+    */
+   public Set<ScanResult> handleInputStreamWindowed(InputStream inputStream, long span, boolean keyed){
+      Set<ScanResult> scanResults = newResultsSet.get();
+      WindowedStandings windowedStandings = new WindowedStandings(span, keyed);
+      try {
+         new MatchLineParser().withColumns(keyed ? 1 : 0).parse(inputStream, windowedStandings);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      Scoreboard scoreboard = windowedStandings.getStandings().buildScoreboard();
+      scanResults.add(new ScanResult.Success(scoreboard));
+      return scanResults;
+   }
+
+   /**
+    * Scores rows of the form {@code <partition>, <team> <score>, <team> <score>} in one pass, one scoreboard per
+    * partition (a league, a season...). The file is split and parsed in parallel as in {@link #handleFileChunked(Path)},
+    * each chunk keeping an accumulator per partition, and the scoreboards of the partitions are then built in parallel.
+    * Every {@link ScanResult.Success} carries its partition.
+    */
+   public Set<ScanResult> handleFilePartitioned(Path path){
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+         return this.handleFilePartitioned(fileChannel, chunkSize(fileChannel.size()));
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   Set<ScanResult> handleFilePartitioned(FileChannel fileChannel, int chunkSize) throws IOException {
+      long[] boundaries = FileChunk.split(fileChannel, chunkSize);
+      PartitionedScores partitionedScores = ForkJoinPool.commonPool().invoke(
+         new FileChunk<>(fileChannel, boundaries, 0, boundaries.length - 1, PartitionedScores::new, 1));
+      return partitionedScores.buildScanResults();
+   }
+
+   /**
+    * Same partitioned scoreboards as {@link #handleFilePartitioned(Path)}, from a stream read on the calling thread.
+    */
+   public Set<ScanResult> handleInputStreamPartitioned(InputStream inputStream){
+      PartitionedScores partitionedScores = new PartitionedScores();
+      try {
+         new MatchLineParser().withColumns(1).parse(inputStream, partitionedScores);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      return partitionedScores.buildScanResults();
+   }
+
+   /**
+    * A partial result of a chunked scan, merged pairwise as the chunks complete.
+    */
+   interface ChunkSink<T extends ChunkSink<T>> extends MatchSink {
+      T merge(T other);
+
+      long getMatches();
+   }
+
+   /**
+    * Parses the chunks {@code [from, to)} of a file, forking until a single chunk is left.
+    */
+   static class FileChunk<T extends ChunkSink<T>> extends RecursiveTask<T> {
+
+      private static final long serialVersionUID = 1L;
+
+      private final FileChannel fileChannel;
+      private final long[] boundaries;
+      private final int from;
+      private final int to;
+      private final Supplier<T> newPartial;
+      //leading columns of each row, see MatchLineParser#withColumns
+      private final int columns;
+
+      FileChunk(FileChannel fileChannel, long[] boundaries, int from, int to, Supplier<T> newPartial, int columns) {
+         this.fileChannel = fileChannel;
+         this.boundaries = boundaries;
+         this.from = from;
+         this.to = to;
+         this.newPartial = newPartial;
+         this.columns = columns;
+      }
+
+      @Override
+      protected T compute() {
+         if(1 < to - from){
+            int middle = (from + to) >>> 1;
+            FileChunk<T> left = new FileChunk<>(fileChannel, boundaries, from, middle, newPartial, columns);
+            left.fork();
+            T right;
+            try {
+               right = new FileChunk<>(fileChannel, boundaries, middle, to, newPartial, columns).compute();
+            } catch (RuntimeException e) {
+               try {
+                  release(left.join(), e);
+               } catch (RuntimeException leftFailure) {
+                  e.addSuppressed(leftFailure);
+               }
+               throw e;
+            }
+            T joined;
+            try {
+               joined = left.join();
+            } catch (RuntimeException e) {
+               release(right, e);
+               throw e;
+            }
+            return joined.merge(right);
+         }
+         T partial = newPartial.get();
+         if(from == to){
+            return partial;
+         }
+         try {
+            long length = boundaries[to] - boundaries[from];
+            //the chunk is a single read (its mapping) and a single parse, which also takes the page faults
+            ScanProbe probe = INSTRUMENTED ? new ScanProbe(partial::getMatches, () -> length) : null;
+            long readStart = null == probe ? 0 : System.nanoTime();
+            MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, boundaries[from], length);
+            long parseStart = null == probe ? 0 : System.nanoTime();
+            new MatchLineParser().withColumns(columns).parse(mapped, partial);
+            if(null != probe){
+               probe.read(parseStart - readStart);
+               probe.parsed(System.nanoTime() - parseStart);
+               probe.publish();
+            }
+         } catch (IOException e) {
+            RuntimeException failure = new RuntimeException(e);
+            release(partial, failure);
+            throw failure;
+         } catch (RuntimeException e) {
+            release(partial, e);
+            throw e;
+         }
+         return partial;
+      }
+
+      /**
+       * Closes a partial given up on because of {@code failure}, if it holds resources of its own: only a merge closes
+       * the partial it takes in.
+       */
+      private static void release(Object partial, RuntimeException failure){
+         if(partial instanceof Closeable){
+            try {
+               ((Closeable) partial).close();
+            } catch (IOException | RuntimeException e) {
+               failure.addSuppressed(e);
+            }
+         }
+      }
+
+      /**
+       * Returns chunk start offsets (plus the file size) such that every chunk starts at the beginning of a line.
+       */
+      static long[] split(FileChannel fileChannel, int chunkSize) throws IOException {
+         long size = fileChannel.size();
+         List<Long> boundaries = new ArrayList<>();
+         boundaries.add(0L);
+         long position = 0;
+         while(position + chunkSize < size){
+            position = nextLineStart(fileChannel, position + chunkSize, size);
+            if(position < size){
+               boundaries.add(position);
+            }
+         }
+         boundaries.add(size);
+         return boundaries.stream().mapToLong(Long::longValue).toArray();
+      }
+
+      /**
+       * Returns the position just past the last newline in {@code [from, size)}, or {@code from} if there is none.
+       */
+      static long lastLineEnd(FileChannel fileChannel, long from, long size) throws IOException {
+         ByteBuffer byteBuffer = ByteBuffer.allocate(4096);
+         long cursor = size;
+         while(cursor > from){
+            int length = (int) Math.min(byteBuffer.capacity(), cursor - from);
+            byteBuffer.clear().limit(length);
+            while(byteBuffer.hasRemaining()){
+               if(0 > fileChannel.read(byteBuffer, cursor - length + byteBuffer.position())){
+                  return from;
+               }
+            }
+            for(int i = length - 1; i >= 0; i--){
+               if('\n' == byteBuffer.get(i)){
+                  return cursor - length + i + 1;
+               }
+            }
+            cursor -= length;
+         }
+         return from;
+      }
+
+      static long nextLineStart(FileChannel fileChannel, long position, long size) throws IOException {
+         ByteBuffer byteBuffer = ByteBuffer.allocate(4096);
+         //start one byte back so a chunk that already begins a line is kept as is
+         long cursor = position - 1;
+         while(cursor < size){
+            byteBuffer.clear();
+            int read = fileChannel.read(byteBuffer, cursor);
+            if(0 >= read){
+               break;
+            }
+            for(int i = 0; i < read; i++){
+               if('\n' == byteBuffer.get(i)){
+                  return cursor + i + 1;
+               }
+            }
+            cursor += read;
+         }
+         return size;
+      }
+   }
+
+   /**
+    * Scores a stream on several cores where it cannot be mapped and split, a pipe say, as a pipeline of
+    * {@link java.util.concurrent.Flow} stages. The calling thread reads line aligned batches of raw bytes and hands them
+    * round robin to the parser stages, each parsing its batches into the offsets, hashes and points of the two sides of
+    * every match. The parsed batches go to every aggregation shard, and each shard only scores the teams whose hash
+    * falls to it, so the shards share no team and merge by concatenation at the end. Stages are connected by
+    * {@link SubmissionPublisher}s that block a stage whose consumer lags behind, and batches are recycled through a
+    * fixed pool, so memory is bounded by the pool whatever the size of the input.
+    */
+   static class FlowPipeline {
+
+      static final int DEFAULT_BATCH_SIZE = 1 << 16;
+
+      private final int parsers;
+      private final int shards;
+      private final int batchSize;
+      private final BlockingQueue<Batch> freeBatches;
+      private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+      FlowPipeline(int parsers, int shards, int batchSize) {
+         this.parsers = parsers;
+         this.shards = shards;
+         this.batchSize = batchSize;
+         //enough for every stage to hold one batch while another waits in front of it
+         int batches = 2 * (parsers + shards) + 1;
+         this.freeBatches = new ArrayBlockingQueue<>(batches);
+         for(int i = 0; i < batches; i++){
+            freeBatches.add(new Batch(batchSize));
+         }
+      }
+
+      /**
+       * Runs the stream through the pipeline and returns the merged totals. The stream is not closed.
+       */
+      ScoresAccumulator run(InputStream inputStream) throws IOException {
+         long start = System.nanoTime();
+         ExecutorService executorService = Executors.newFixedThreadPool(parsers + shards, runnable -> {
+            Thread thread = new Thread(runnable, "span-flow");
+            thread.setDaemon(true);
+            return thread;
+         });
+         try {
+            SubmissionPublisher<Batch> parsed = new SubmissionPublisher<>(executorService, Flow.defaultBufferSize());
+            List<AggregateStage> aggregateStages = new ArrayList<>();
+            CountDownLatch aggregated = new CountDownLatch(shards);
+            for(int shard = 0; shard < shards; shard++){
+               AggregateStage aggregateStage = new AggregateStage(shard, aggregated);
+               aggregateStages.add(aggregateStage);
+               parsed.subscribe(aggregateStage);
+            }
+            List<SubmissionPublisher<Batch>> raw = new ArrayList<>();
+            AtomicInteger parsing = new AtomicInteger(parsers);
+            for(int i = 0; i < parsers; i++){
+               SubmissionPublisher<Batch> publisher = new SubmissionPublisher<>(executorService, Flow.defaultBufferSize());
+               publisher.subscribe(new ParseStage(parsed, parsing));
+               raw.add(publisher);
+            }
+            long bytes = read(inputStream, raw);
+            raw.forEach(SubmissionPublisher::close);
+            aggregated.await();
+            if(null != failure.get()){
+               throw failure.get();
+            }
+            ScoresAccumulator scoresAccumulator = aggregateStages.get(0).scoresAccumulator;
+            for(int shard = 1; shard < shards; shard++){
+               scoresAccumulator.merge(aggregateStages.get(shard).scoresAccumulator);
+            }
+            if(INSTRUMENTED){
+               Stats.INSTANCE.publish(start, scoresAccumulator.getMatches(), bytes, null, null);
+            }
+            return scoresAccumulator;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+         } finally {
+            executorService.shutdownNow();
+         }
+      }
+
+      /**
+       * The reader stage: fills batches that end on a line break, carrying the partial line over to the next batch, and
+       * publishes them round robin. Returns the number of bytes read.
+       */
+      private long read(InputStream inputStream, List<SubmissionPublisher<Batch>> raw) throws IOException, InterruptedException {
+         long bytes = 0;
+         long sequence = 0;
+         Batch batch = freeBatches.take();
+         while(null == failure.get()){
+            int read = inputStream.read(batch.bytes, batch.length, batch.bytes.length - batch.length);
+            if(-1 == read){
+               break;
+            }
+            bytes += read;
+            batch.length += read;
+            if(batch.length < batch.bytes.length){
+               continue;
+            }
+            int end = batch.length;
+            while(0 < end && '\n' != batch.bytes[end - 1]){
+               end--;
+            }
+            if(0 == end){
+               //a single row longer than the batch
+               batch.bytes = Arrays.copyOf(batch.bytes, batch.bytes.length * 2);
+               continue;
+            }
+            Batch next = freeBatches.take();
+            next.length = batch.length - end;
+            if(next.length >= next.bytes.length){
+               next.bytes = new byte[batch.bytes.length];
+            }
+            System.arraycopy(batch.bytes, end, next.bytes, 0, next.length);
+            batch.length = end;
+            raw.get((int) (sequence++ % parsers)).submit(batch);
+            batch = next;
+         }
+         if(0 < batch.length && '\n' != batch.bytes[batch.length - 1]){
+            //the last line of the input has no line break
+            if(batch.length == batch.bytes.length){
+               batch.bytes = Arrays.copyOf(batch.bytes, batch.bytes.length + 1);
+            }
+            batch.bytes[batch.length++] = '\n';
+         }
+         raw.get((int) (sequence % parsers)).submit(batch);
+         return bytes;
+      }
+
+      private void fail(RuntimeException e){
+         failure.compareAndSet(null, e);
+      }
+
+      /**
+       * Returns the batch to the pool once every shard is done with it.
+       */
+      private void release(Batch batch){
+         if(0 == batch.pending.decrementAndGet()){
+            batch.length = 0;
+            batch.matches = 0;
+            if(batch.bytes.length > batchSize){
+               batch.bytes = new byte[batchSize];
+            }
+            freeBatches.add(batch);
+         }
+      }
+
+      /**
+       * Raw rows on the way in, the parsed sides of each match on the way out; the side offsets point into the raw rows.
+       */
+      static class Batch implements MatchSink {
+         byte[] bytes;
+         int length;
+         int matches;
+         //per match, left side then right side
+         int[] offsets = new int[256];
+         int[] lengths = new int[256];
+         int[] hashes = new int[256];
+         int[] points = new int[256];
+         final AtomicInteger pending = new AtomicInteger();
+
+         Batch(int batchSize) {
+            this.bytes = new byte[batchSize];
+         }
+
+         @Override
+         public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+            int side = 2 * matches;
+            if(side + 2 > offsets.length){
+               offsets = Arrays.copyOf(offsets, offsets.length * 2);
+               lengths = Arrays.copyOf(lengths, lengths.length * 2);
+               hashes = Arrays.copyOf(hashes, hashes.length * 2);
+               points = Arrays.copyOf(points, points.length * 2);
+            }
+            offsets[side] = leftOffset;
+            lengths[side] = leftLength;
+            hashes[side] = TeamDictionary.hash(bytes, leftOffset, leftLength);
+            points[side] = leftPoints;
+            offsets[side + 1] = rightOffset;
+            lengths[side + 1] = rightLength;
+            hashes[side + 1] = TeamDictionary.hash(bytes, rightOffset, rightLength);
+            points[side + 1] = rightPoints;
+            matches++;
+         }
+      }
+
+      /**
+       * Parses raw batches and publishes them to the shards; the last parser to complete completes the shards.
+       */
+      private class ParseStage implements Flow.Subscriber<Batch> {
+
+         private final SubmissionPublisher<Batch> parsed;
+         private final AtomicInteger parsing;
+         private Flow.Subscription subscription;
+
+         ParseStage(SubmissionPublisher<Batch> parsed, AtomicInteger parsing) {
+            this.parsed = parsed;
+            this.parsing = parsing;
+         }
+
+         @Override
+         public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+         }
+
+         @Override
+         public void onNext(Batch batch) {
+            try {
+               MatchLineParser.parseLines(batch.bytes, 0, batch.length, batch);
+            } catch (RuntimeException e) {
+               //still passed on, so the batch finds its way back to the pool
+               batch.matches = 0;
+               fail(e);
+            }
+            batch.pending.set(shards);
+            parsed.submit(batch);
+            subscription.request(1);
+         }
+
+         @Override
+         public void onError(Throwable throwable) {
+            fail(new RuntimeException(throwable));
+            onComplete();
+         }
+
+         @Override
+         public void onComplete() {
+            if(0 == parsing.decrementAndGet()){
+               parsed.close();
+            }
+         }
+      }
+
+      /**
+       * Scores the teams of its shard from every parsed batch.
+       */
+      private class AggregateStage implements Flow.Subscriber<Batch> {
+
+         final ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+         private final int shard;
+         private final CountDownLatch aggregated;
+         private Flow.Subscription subscription;
+
+         AggregateStage(int shard, CountDownLatch aggregated) {
+            this.shard = shard;
+            this.aggregated = aggregated;
+         }
+
+         @Override
+         public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+         }
+
+         @Override
+         public void onNext(Batch batch) {
+            try {
+               if(0 == shard){
+                  scoresAccumulator.matches += batch.matches;
+               }
+               for(int side = 0; side < 2 * batch.matches; side++){
+                  int hash = batch.hashes[side];
+                  if(Integer.remainderUnsigned(hash, shards) != shard){
+                     continue;
+                  }
+                  //the other side of the match sits next to this one
+                  int other = side ^ 1;
+                  int points = scoresAccumulator.determinePoints.applyAsInt(batch.points[side], batch.points[other]);
+                  scoresAccumulator.addPoints(scoresAccumulator.teams.intern(batch.bytes, batch.offsets[side], batch.lengths[side], hash), points);
+               }
+            } catch (RuntimeException e) {
+               fail(e);
+            }
+            release(batch);
+            subscription.request(1);
+         }
+
+         @Override
+         public void onError(Throwable throwable) {
+            fail(new RuntimeException(throwable));
+            aggregated.countDown();
+         }
+
+         @Override
+         public void onComplete() {
+            aggregated.countDown();
+         }
+      }
+   }
+
+   /**
+    * Reads its source on a background thread into a bounded ring of reusable buffers and hands them out in order, so
+    * whatever the source does per byte (inflating, say) runs alongside whatever the reader does.
+    */
+   static class PipelinedInputStream extends InputStream {
+
+      static final int DEFAULT_BUFFERS = 4;
+
+      private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+      private final InputStream source;
+      private final BlockingQueue<ByteBuffer> free;
+      private final BlockingQueue<ByteBuffer> filled;
+      private final Thread reader;
+      private volatile IOException failure;
+      private volatile boolean closed;
+      private ByteBuffer current;
+
+      PipelinedInputStream(InputStream source) {
+         this(source, DEFAULT_BUFFERS, MatchLineParser.DEFAULT_BUFFER_SIZE);
+      }
+
+      PipelinedInputStream(InputStream source, int buffers, int bufferSize) {
+         this.source = source;
+         this.free = new ArrayBlockingQueue<>(buffers);
+         //one spare slot so the end marker always fits
+         this.filled = new ArrayBlockingQueue<>(buffers + 1);
+         for(int i = 0; i < buffers; i++){
+            free.add(ByteBuffer.allocate(bufferSize));
+         }
+         this.reader = new Thread(this::fill, "span-pipelined-reader");
+         this.reader.setDaemon(true);
+         this.reader.start();
+      }
+
+      private void fill(){
+         try {
+            while(true){
+               ByteBuffer byteBuffer = free.take();
+               int read = source.readNBytes(byteBuffer.array(), 0, byteBuffer.capacity());
+               if(0 == read){
+                  break;
+               }
+               byteBuffer.clear().limit(read);
+               filled.put(byteBuffer);
+               if(read < byteBuffer.capacity()){
+                  break;
+               }
+            }
+         } catch (IOException e) {
+            failure = e;
+         } catch (RuntimeException e) {
+            //a source closed under the reader, such as an ended Inflater, may fail with anything
+            if(!closed){
+               failure = new IOException(e);
+            }
+         } catch (InterruptedException e) {
+            //closed early
+         } finally {
+            filled.offer(END);
+         }
+      }
+
+      /**
+       * Returns the buffer to read from, waiting for the reader thread if need be, or null at the end of the source.
+       */
+      private ByteBuffer current() throws IOException {
+         if(null != current && current.hasRemaining()){
+            return current;
+         }
+         if(END == current){
+            return null;
+         }
+         if(null != current){
+            free.add(current);
+         }
+         try {
+            current = filled.take();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+         }
+         if(END == current){
+            if(null != failure){
+               throw failure;
+            }
+            return null;
+         }
+         return current;
+      }
+
+      @Override
+      public int read() throws IOException {
+         ByteBuffer byteBuffer = current();
+         return null == byteBuffer ? -1 : byteBuffer.get() & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+         if(0 == length){
+            return 0;
+         }
+         ByteBuffer byteBuffer = current();
+         if(null == byteBuffer){
+            return -1;
+         }
+         int read = Math.min(length, byteBuffer.remaining());
+         byteBuffer.get(bytes, offset, read);
+         return read;
+      }
+
+      /**
+       * Stops the reader without waiting for it: a reader blocked reading a live pipe does not notice an interrupt, and
+       * only gives up once the source is closed under it or the producer writes again. It is a daemon thread, so it never
+       * keeps the JVM alive.
+       */
+      @Override
+      public void close() throws IOException {
+         closed = true;
+         reader.interrupt();
+         source.close();
+      }
+   }
+
+   /**
+    * Inflates and scores the members of a multi-member gzip file in parallel. The file is cut at evenly spread points,
+    * each moved forward to the next byte sequence that looks like a member header. Magic bytes can also turn up inside
+    * compressed data, so every piece is inflated as a chain of members that must end exactly where the next piece starts,
+    * with every member's CRC and length checked; if any piece fails that, the caller inflates the file in order instead.
+    * Lines running across pieces are stitched together at the end.
+    */
+   static class GzipMembers {
+
+      static final int FHCRC = 2;
+      static final int FEXTRA = 4;
+      static final int FNAME = 8;
+      static final int FCOMMENT = 16;
+      static final int RESERVED = 0xE0;
+
+      /**
+       * Peeks at the first two bytes of a stream that supports mark and reset.
+       */
+      static boolean isGzip(InputStream inputStream){
+         try {
+            inputStream.mark(2);
+            boolean gzip = 0x1f == inputStream.read() && 0x8b == inputStream.read();
+            inputStream.reset();
+            return gzip;
+         } catch (IOException e) {
+            throw new RuntimeException(e);
+         }
+      }
+
+      /**
+       * Returns the scores of the whole file, or null if it cannot be split at member boundaries.
+       */
+      static ScoresAccumulator scan(FileChannel fileChannel, int segments) throws IOException {
+         long size = fileChannel.size();
+         List<Long> starts = new ArrayList<>();
+         starts.add(0L);
+         for(int i = 1; i < segments; i++){
+            //each search stays within its own segment, so a file of one member is read once more at most
+            long candidate = nextCandidate(fileChannel, Math.max(starts.get(starts.size() - 1) + 1, size * i / segments), size * (i + 1) / segments);
+            if(-1 != candidate){
+               starts.add(candidate);
+            } else if(1 == i){
+               //most likely a file of one member, as written by gzip: not worth searching the rest
+               return null;
+            }
+         }
+         if(1 == starts.size()){
+            return null;
+         }
+         starts.add(size);
+         List<Callable<Piece>> pieces = new ArrayList<>();
+         for(int i = 0; i < starts.size() - 1; i++){
+            long length = starts.get(i + 1) - starts.get(i);
+            if(Integer.MAX_VALUE < length){
+               return null;
+            }
+            MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, starts.get(i), length);
+            boolean first = 0 == i;
+            pieces.add(() -> Piece.inflate(mapped, first));
+         }
+         ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+         byte[] carry = new byte[0];
+         try {
+            for(Future<Piece> future : ForkJoinPool.commonPool().invokeAll(pieces)){
+               Piece piece = future.get();
+               scoresAccumulator.merge(piece.scoresAccumulator);
+               carry = concat(carry, piece.head);
+               if(null != piece.tail){
+                  MatchLineParser.parseLine(carry, 0, carry.length, scoresAccumulator);
+                  carry = piece.tail;
+               }
+            }
+            MatchLineParser.parseLine(carry, 0, carry.length, scoresAccumulator);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+         } catch (ExecutionException | RuntimeException e) {
+            //a guessed boundary may inflate to garbage that fails anywhere, before its CRC is ever checked: the
+            //sequential scan reports whatever is really wrong with the file
+            return null;
+         }
+         return scoresAccumulator;
+      }
+
+      /**
+       * Returns the position of the first plausible member header starting in {@code [from, to)}, or -1.
+       */
+      static long nextCandidate(FileChannel fileChannel, long from, long to) throws IOException {
+         //a header starting just before to is still looked at in full
+         long size = Math.min(fileChannel.size(), to + 3);
+         ByteBuffer byteBuffer = ByteBuffer.allocate((int) Math.min(1 << 16, Math.max(0, size - from)));
+         long cursor = from;
+         while(cursor < to){
+            byteBuffer.clear().limit((int) Math.min(byteBuffer.capacity(), size - cursor));
+            int read = fileChannel.read(byteBuffer, cursor);
+            if(0 >= read){
+               break;
+            }
+            //the last few bytes are looked at again with the next window
+            int last = cursor + read < size ? read - 3 : read;
+            for(int i = 0; i < last && cursor + i < to; i++){
+               if(0x1f == byteBuffer.get(i) && i + 3 < read
+                  && (byte) 0x8b == byteBuffer.get(i + 1) && 8 == byteBuffer.get(i + 2) && 0 == (byteBuffer.get(i + 3) & RESERVED)){
+                  return cursor + i;
+               }
+            }
+            cursor += Math.max(1, last);
+         }
+         return -1;
+      }
+
+      private static byte[] concat(byte[] a, byte[] b){
+         byte[] joined = Arrays.copyOf(a, a.length + b.length);
+         System.arraycopy(b, 0, joined, a.length, b.length);
+         return joined;
+      }
+
+      /**
+       * The scores of the complete lines of a piece, with the bytes before its first line break (the end of a line that
+       * started in an earlier piece) and after its last one. A piece without any line break is all head and no tail.
+       */
+      static class Piece {
+         final ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+         byte[] head = new byte[0];
+         byte[] tail;
+
+         static Piece inflate(ByteBuffer members, boolean first) throws IOException {
+            Piece piece = new Piece();
+            try (InputStream inputStream = new BufferedInputStream(new MemberInputStream(members), MatchLineParser.DEFAULT_BUFFER_SIZE)) {
+               if(!first){
+                  ByteArrayOutputStream head = new ByteArrayOutputStream();
+                  int b;
+                  while(-1 != (b = inputStream.read()) && '\n' != b){
+                     head.write(b);
+                  }
+                  piece.head = head.toByteArray();
+                  if(-1 == b){
+                     return piece;
+                  }
+               }
+               piece.tail = new MatchLineParser().parseAllButLast(inputStream, piece.scoresAccumulator);
+            }
+            return piece;
+         }
+      }
+   }
+
+   /**
+    * Inflates a buffer holding one or more whole gzip members, straight from the buffer, and fails with a
+    * {@link ZipException} unless every header, CRC and length checks out and the last member ends with the buffer.
+    */
+   static class MemberInputStream extends InputStream {
+
+      private final ByteBuffer members;
+      private final Inflater inflater = new Inflater(true);
+      private final CRC32 crc = new CRC32();
+      private boolean inMember;
+
+      MemberInputStream(ByteBuffer members) {
+         this.members = members.order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      @Override
+      public int read() throws IOException {
+         byte[] single = new byte[1];
+         return -1 == read(single, 0, 1) ? -1 : single[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+         if(0 == length){
+            return 0;
+         }
+         try {
+            while(true){
+               if(!inMember){
+                  if(!members.hasRemaining()){
+                     return -1;
+                  }
+                  readHeader();
+                  inflater.reset();
+                  inflater.setInput(members);
+                  crc.reset();
+                  inMember = true;
+               }
+               int read = inflater.inflate(bytes, offset, length);
+               if(0 < read){
+                  crc.update(bytes, offset, read);
+                  return read;
+               }
+               if(inflater.finished()){
+                  readTrailer();
+                  inMember = false;
+               } else if(inflater.needsInput()){
+                  throw new ZipException("Truncated gzip member");
+               } else if(inflater.needsDictionary()){
+                  throw new ZipException("Unexpected preset dictionary");
+               }
+            }
+         } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+         } catch (BufferUnderflowException e) {
+            throw new ZipException("Truncated gzip member");
+         }
+      }
+
+      private void readHeader() throws ZipException {
+         if(0x1f != (members.get() & 0xFF) || 0x8b != (members.get() & 0xFF) || 8 != members.get()){
+            throw new ZipException("Not a gzip member");
+         }
+         int flags = members.get() & 0xFF;
+         if(0 != (flags & GzipMembers.RESERVED)){
+            throw new ZipException("Reserved gzip flags set");
+         }
+         //modification time, extra flags and operating system
+         skip(6);
+         if(0 != (flags & GzipMembers.FEXTRA)){
+            skip(members.getShort() & 0xFFFF);
+         }
+         if(0 != (flags & GzipMembers.FNAME)){
+            while(0 != members.get()){
+               //skip the zero terminated name
+            }
+         }
+         if(0 != (flags & GzipMembers.FCOMMENT)){
+            while(0 != members.get()){
+               //skip the zero terminated comment
+            }
+         }
+         if(0 != (flags & GzipMembers.FHCRC)){
+            members.getShort();
+         }
+      }
+
+      private void skip(int length) throws ZipException {
+         if(members.remaining() < length){
+            throw new ZipException("Truncated gzip header");
+         }
+         members.position(members.position() + length);
+      }
+
+      private void readTrailer() throws ZipException {
+         long crc32 = members.getInt() & 0xFFFFFFFFL;
+         long length = members.getInt() & 0xFFFFFFFFL;
+         if(crc.getValue() != crc32 || (inflater.getBytesWritten() & 0xFFFFFFFFL) != length){
+            throw new ZipException("Corrupt gzip member");
+         }
+      }
+
+      @Override
+      public void close() {
+         inflater.end();
+      }
+   }
+
+   /**
+    * Live counters of the running process, published as the {@code span.problem:type=Stats} MBean.
+    */
+   public interface StatsMBean {
+      long getRowsProcessed();
+
+      long getBytesRead();
+
+      long getRejectedRows();
+
+      /**
+       * Replayed rows dropped by deduplicating scans.
+       */
+      long getDuplicateRows();
+
+      /**
+       * Rows processed over the time between the first and the latest published batch.
+       */
+      double getRowsPerSecond();
+
+      long[] getReadLatencyHistogram();
+
+      long[] getParseLatencyHistogram();
+
+      long[] getBuildScoreboardLatencyHistogram();
+
+      long[] getPrepareScoreboardLatencyHistogram();
+
+      void reset();
+   }
+
+   /**
+    * Process wide counters behind {@link StatsMBean}. Histogram bucket {@code i} counts operations that took between
+    * 2^i and 2^(i+1) nanoseconds. Reads and parses are timed per buffer, or per chunk of a memory mapped file;
+    * building and preparing (or writing) scoreboards are timed per call. Scans publish here in batches (see
+    * {@link ScanProbe}), so the shared counters see little traffic even with instrumentation left on.
+    */
+   public static class Stats implements StatsMBean {
+
+      static final int BUCKETS = 64;
+
+      static final Stats INSTANCE = register(new Stats());
+
+      private final LongAdder rows = new LongAdder();
+      private final LongAdder bytes = new LongAdder();
+      private final LongAdder rejected = new LongAdder();
+      private final LongAdder duplicates = new LongAdder();
+      private final AtomicLong firstActivity = new AtomicLong(Long.MAX_VALUE);
+      private final AtomicLong lastActivity = new AtomicLong(Long.MIN_VALUE);
+      private final AtomicLongArray read = new AtomicLongArray(BUCKETS);
+      private final AtomicLongArray parse = new AtomicLongArray(BUCKETS);
+      private final AtomicLongArray buildScoreboard = new AtomicLongArray(BUCKETS);
+      private final AtomicLongArray prepareScoreboard = new AtomicLongArray(BUCKETS);
+
+      private static Stats register(Stats stats){
+         if(INSTRUMENTED){
+            try {
+               ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName("span.problem:type=Stats"));
+            } catch (JMException e) {
+               //another copy of the classes already registered one; counters still work, they are just not exported
+            }
+         }
+         return stats;
+      }
+
+      static int bucket(long nanos){
+         return 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+      }
+
+      /**
+       * Adds a batch of rows, started at {@code batchStart} (a {@link System#nanoTime()} value), with its local
+       * histograms, which may be null.
+       */
+      void publish(long batchStart, long rows, long bytes, long[] readHistogram, long[] parseHistogram){
+         this.rows.add(rows);
+         this.bytes.add(bytes);
+         firstActivity.accumulateAndGet(batchStart, Math::min);
+         lastActivity.accumulateAndGet(System.nanoTime(), Math::max);
+         add(read, readHistogram);
+         add(parse, parseHistogram);
+      }
+
+      void rejected(long count){
+         rejected.add(count);
+      }
+
+      void duplicates(long count){
+         duplicates.add(count);
+      }
+
+      void builtScoreboard(long nanos){
+         buildScoreboard.incrementAndGet(bucket(nanos));
+      }
+
+      void preparedScoreboard(long nanos){
+         prepareScoreboard.incrementAndGet(bucket(nanos));
+      }
+
+      private static void add(AtomicLongArray histogram, long[] counts){
+         if(null == counts){
+            return;
+         }
+         for(int i = 0; i < BUCKETS; i++){
+            if(0 != counts[i]){
+               histogram.addAndGet(i, counts[i]);
+            }
+         }
+      }
+
+      private static long[] toArray(AtomicLongArray histogram){
+         long[] counts = new long[BUCKETS];
+         for(int i = 0; i < BUCKETS; i++){
+            counts[i] = histogram.get(i);
+         }
+         return counts;
+      }
+
+      @Override
+      public long getRowsProcessed() {
+         return rows.sum();
+      }
+
+      @Override
+      public long getBytesRead() {
+         return bytes.sum();
+      }
+
+      @Override
+      public long getRejectedRows() {
+         return rejected.sum();
+      }
+
+      @Override
+      public long getDuplicateRows() {
+         return duplicates.sum();
+      }
+
+      @Override
+      public double getRowsPerSecond() {
+         long elapsed = lastActivity.get() - firstActivity.get();
+         return 0 >= elapsed ? 0 : rows.sum() * 1e9 / elapsed;
+      }
+
+      @Override
+      public long[] getReadLatencyHistogram() {
+         return toArray(read);
+      }
+
+      @Override
+      public long[] getParseLatencyHistogram() {
+         return toArray(parse);
+      }
+
+      @Override
+      public long[] getBuildScoreboardLatencyHistogram() {
+         return toArray(buildScoreboard);
+      }
+
+      @Override
+      public long[] getPrepareScoreboardLatencyHistogram() {
+         return toArray(prepareScoreboard);
+      }
+
+      @Override
+      public void reset() {
+         rows.reset();
+         bytes.reset();
+         rejected.reset();
+         duplicates.reset();
+         firstActivity.set(Long.MAX_VALUE);
+         lastActivity.set(Long.MIN_VALUE);
+         for(int i = 0; i < BUCKETS; i++){
+            read.set(i, 0);
+            parse.set(i, 0);
+            buildScoreboard.set(i, 0);
+            prepareScoreboard.set(i, 0);
+         }
+      }
+   }
+
+   /**
+    * Per scan timings, kept on the scanning thread and published to {@link Stats} and as JFR read / parse events once
+    * every {@value #BATCH_ROWS} rows and at the end of the scan.
+    */
+   static class ScanProbe {
+
+      static final int BATCH_ROWS = 1 << 16;
+
+      private final LongSupplier rowCounter;
+      private final LongSupplier byteCounter;
+      private final long[] readHistogram = new long[Stats.BUCKETS];
+      private final long[] parseHistogram = new long[Stats.BUCKETS];
+      private long publishedRows;
+      private long publishedBytes;
+      private long readNanos;
+      private long parseNanos;
+      private long batchStart;
+      private ReadEvent readEvent;
+      private ParseEvent parseEvent;
+
+      ScanProbe(LongSupplier rowCounter, LongSupplier byteCounter) {
+         this.rowCounter = rowCounter;
+         this.byteCounter = byteCounter;
+         startBatch();
+      }
+
+      void read(long nanos){
+         readNanos += nanos;
+         readHistogram[Stats.bucket(nanos)]++;
+      }
+
+      void parsed(long nanos){
+         parseNanos += nanos;
+         parseHistogram[Stats.bucket(nanos)]++;
+         if(rowCounter.getAsLong() - publishedRows >= BATCH_ROWS){
+            publish();
+         }
+      }
+
+      void publish(){
+         long rows = rowCounter.getAsLong() - publishedRows;
+         long bytes = byteCounter.getAsLong() - publishedBytes;
+         if(0 == rows && 0 == bytes && 0 == readNanos + parseNanos){
+            //already published in full
+            return;
+         }
+         publishedRows += rows;
+         publishedBytes += bytes;
+         Stats.INSTANCE.publish(batchStart, rows, bytes, readHistogram, parseHistogram);
+         readEvent.commit(rows, bytes, readNanos);
+         parseEvent.commit(rows, bytes, parseNanos);
+         Arrays.fill(readHistogram, 0);
+         Arrays.fill(parseHistogram, 0);
+         readNanos = 0;
+         parseNanos = 0;
+         startBatch();
+      }
+
+      private void startBatch(){
+         batchStart = System.nanoTime();
+         readEvent = new ReadEvent();
+         readEvent.begin();
+         parseEvent = new ParseEvent();
+         parseEvent.begin();
+      }
+   }
+
+   /**
+    * Counts the bytes handed out by the wrapped stream.
+    */
+   static class CountingInputStream extends FilterInputStream {
+
+      private long count;
+
+      CountingInputStream(InputStream inputStream) {
+         super(inputStream);
+      }
+
+      long getCount() {
+         return count;
+      }
+
+      @Override
+      public int read() throws IOException {
+         int read = super.read();
+         if(-1 != read){
+            count++;
+         }
+         return read;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+         int read = super.read(bytes, offset, length);
+         if(0 < read){
+            count += read;
+         }
+         return read;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+         long skipped = super.skip(n);
+         count += skipped;
+         return skipped;
+      }
+   }
+
+   /**
+    * Times a parser that pulls its own buffers from the stream, such as a {@link Scanner}, per buffer: the time spent in
+    * a read of the wrapped stream is read time and the time since the previous read is the time taken to parse what it
+    * returned.
+    */
+   static class TimedInputStream extends CountingInputStream {
+
+      private ScanProbe probe;
+      private long readEnd;
+
+      TimedInputStream(InputStream inputStream) {
+         super(inputStream);
+      }
+
+      TimedInputStream withProbe(ScanProbe probe){
+         this.probe = probe;
+         this.readEnd = System.nanoTime();
+         return this;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+         if(null == probe){
+            return super.read(bytes, offset, length);
+         }
+         long readStart = System.nanoTime();
+         probe.parsed(readStart - readEnd);
+         int read = super.read(bytes, offset, length);
+         readEnd = System.nanoTime();
+         probe.read(readEnd - readStart);
+         return read;
+      }
+   }
+
+   /**
+    * Time spent in one stage of a scan, summed over a batch of rows; the event itself spans the whole batch.
+    */
+   @Category("SPAN Problem")
+   @StackTrace(false)
+   abstract static class BatchEvent extends Event {
+      @Label("Rows")
+      long rows;
+
+      @Label("Bytes")
+      @DataAmount
+      long bytes;
+
+      @Label("Stage Time")
+      @Timespan(Timespan.NANOSECONDS)
+      long stageTime;
+
+      void commit(long rows, long bytes, long stageTime){
+         end();
+         if(shouldCommit()){
+            this.rows = rows;
+            this.bytes = bytes;
+            this.stageTime = stageTime;
+            commit();
+         }
+      }
+   }
+
+   @Name("span.problem.Read")
+   @Label("Read")
+   @Category("SPAN Problem")
+   @StackTrace(false)
+   static class ReadEvent extends BatchEvent {
+   }
+
+   @Name("span.problem.Parse")
+   @Label("Parse")
+   @Category("SPAN Problem")
+   @StackTrace(false)
+   static class ParseEvent extends BatchEvent {
+   }
+
+   /**
+    * A whole call of a stage, also recorded in the matching {@link Stats} histogram.
+    */
+   @Category("SPAN Problem")
+   @StackTrace(false)
+   abstract static class StageEvent extends Event {
+      @Label("Rows")
+      long rows;
+
+      private transient long startNanos;
+
+      StageEvent started(){
+         startNanos = System.nanoTime();
+         begin();
+         return this;
+      }
+
+      void finish(long rows){
+         end();
+         record(System.nanoTime() - startNanos);
+         if(shouldCommit()){
+            this.rows = rows;
+            commit();
+         }
+      }
+
+      abstract void record(long nanos);
+   }
+
+   @Name("span.problem.BuildScoreboard")
+   @Label("Build Scoreboard")
+   @Category("SPAN Problem")
+   @StackTrace(false)
+   static class BuildScoreboardEvent extends StageEvent {
+      @Override
+      void record(long nanos) {
+         Stats.INSTANCE.builtScoreboard(nanos);
+      }
+   }
+
+   @Name("span.problem.PrepareScoreboard")
+   @Label("Prepare Scoreboard")
+   @Category("SPAN Problem")
+   @StackTrace(false)
+   static class PrepareScoreboardEvent extends StageEvent {
+      @Override
+      void record(long nanos) {
+         Stats.INSTANCE.preparedScoreboard(nanos);
+      }
+   }
+
+   /**
+    * Receives one parsed row as byte ranges into the parser's buffer; the ranges are only valid for the duration of the call.
+    */
+   interface MatchSink {
+      void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints);
+   }
+
+   /**
+    * Receives rows that carry leading columns ahead of the match, see {@link MatchLineParser#withColumns(int)}.
+    */
+   interface ColumnSink extends MatchSink {
+      /**
+       * Called with the trimmed leading columns of a row, as offset and length pairs into {@code bytes}, just before the
+       * match of the same row is accepted; a row whose match turns out to be malformed is not accepted.
+       */
+      void columns(byte[] bytes, int[] columns);
+   }
+
+   /**
+    * One accumulator per partition, keyed by the first leading column of each row.
+    */
+   static class PartitionedScores implements ColumnSink, ChunkSink<PartitionedScores> {
+
+      final TeamDictionary partitions = new TeamDictionary();
+      //indexed by partition id
+      private final List<ScoresAccumulator> accumulators = new ArrayList<>();
+      private byte[] keyBytes;
+      private int keyOffset;
+      private int keyLength;
+      private long matches;
+
+      @Override
+      public void columns(byte[] bytes, int[] columns) {
+         keyBytes = bytes;
+         keyOffset = columns[0];
+         keyLength = columns[1];
+      }
+
+      @Override
+      public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+         matches++;
+         accumulatorOf(partitions.intern(keyBytes, keyOffset, keyLength))
+            .accept(bytes, leftOffset, leftLength, leftPoints, rightOffset, rightLength, rightPoints);
+      }
+
+      @Override
+      public PartitionedScores merge(PartitionedScores other) {
+         matches += other.matches;
+         for(int otherId = 0; otherId < other.partitions.size(); otherId++){
+            int id = partitions.intern(other.partitions.nameBytes(), other.partitions.offsetOf(otherId), other.partitions.lengthOf(otherId));
+            accumulatorOf(id).merge(other.accumulators.get(otherId));
+         }
+         return this;
+      }
+
+      @Override
+      public long getMatches() {
+         return matches;
+      }
+
+      Set<ScanResult> buildScanResults(){
+         Set<ScanResult> scanResults = newResultsSet.get();
+         IntStream.range(0, partitions.size())
+            .parallel()
+            .mapToObj(id -> new ScanResult.Success(partitions.nameOf(id), accumulators.get(id).buildScoreboard()))
+            .collect(Collectors.toList())
+            .forEach(scanResults::add);
+         return scanResults;
+      }
+
+      private ScoresAccumulator accumulatorOf(int id){
+         if(id == accumulators.size()){
+            accumulators.add(new ScoresAccumulator());
+         }
+         return accumulators.get(id);
+      }
+   }
+
+   /**
+    * Single pass, allocation free parser for rows of the form {@code <team> <score>, <team> <score>}.
+    * Follows the same rules as {@link #extractTeamAndScores}: each side is trimmed, the team is everything before the
+    * last space and the score is everything after it.
+    */
+   static class MatchLineParser {
+
+      static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+      private byte[] buffer;
+      private ScanProbe probe;
+      private RowQuarantine quarantine;
+      //offset and length of each leading column of the current row
+      private int[] columns = new int[0];
+      //where buffer[0] sits in the input and the number of the next line, only kept up with a quarantine
+      private long bufferOffset;
+      private long lineNumber = 1;
+      //with a quarantine a row is parsed into this first and only then handed to the sink, so the quarantine only gets
+      //rows that do not parse and not failures of the sink
+      private final ParsedRow parsedRow = new ParsedRow();
+
+      MatchLineParser() {
+         this(DEFAULT_BUFFER_SIZE);
+      }
+
+      MatchLineParser(int bufferSize) {
+         this.buffer = new byte[bufferSize];
+      }
+
+      /**
+       * Times every read and every parse of a buffer full of rows into the probe.
+       */
+      MatchLineParser withProbe(ScanProbe probe) {
+         this.probe = probe;
+         return this;
+      }
+
+      /**
+       * Expects {@code count} comma separated columns ahead of the match on every row and hands them to the sink, which
+       * must then be a {@link ColumnSink}.
+       */
+      MatchLineParser withColumns(int count) {
+         this.columns = new int[count * 2];
+         return this;
+      }
+
+      /**
+       * Hands rows that cannot be parsed to the quarantine instead of throwing.
+       */
+      MatchLineParser withQuarantine(RowQuarantine quarantine) {
+         this.quarantine = quarantine;
+         return this;
+      }
+
+      void parse(InputStream inputStream, MatchSink sink) throws IOException {
+         finish(parseCompleteLines(inputStream, sink), sink);
+      }
+
+      /**
+       * Parses every complete line of the stream and returns the trailing bytes after the last line break unparsed.
+       */
+      byte[] parseAllButLast(InputStream inputStream, MatchSink sink) throws IOException {
+         return Arrays.copyOf(buffer, parseCompleteLines(inputStream, sink));
+      }
+
+      /**
+       * Returns the length of the partial line left at the front of the buffer.
+       */
+      private int parseCompleteLines(InputStream inputStream, MatchSink sink) throws IOException {
+         int end = 0;
+         int read;
+         long readStart = null == probe ? 0 : System.nanoTime();
+         while(-1 != (read = inputStream.read(buffer, end, buffer.length - end))){
+            if(null == probe){
+               end = consume(end + read, sink);
+               continue;
+            }
+            long parseStart = System.nanoTime();
+            end = consume(end + read, sink);
+            long parseEnd = System.nanoTime();
+            probe.read(parseStart - readStart);
+            probe.parsed(parseEnd - parseStart);
+            readStart = parseEnd;
+         }
+         return end;
+      }
+
+      void parse(ByteBuffer byteBuffer, MatchSink sink) {
+         int end = 0;
+         while(byteBuffer.hasRemaining()){
+            int read = Math.min(buffer.length - end, byteBuffer.remaining());
+            byteBuffer.get(buffer, end, read);
+            end = consume(end + read, sink);
+         }
+         finish(end, sink);
+      }
+
+      /**
+       * Parses the complete lines held in the buffer, moves the trailing partial line to the front and returns its length.
+       */
+      private int consume(int end, MatchSink sink) {
+         int consumed = null == quarantine && 0 == columns.length ? parseLines(buffer, 0, end, sink) : parseRows(end, sink);
+         bufferOffset += consumed;
+         end -= consumed;
+         System.arraycopy(buffer, consumed, buffer, 0, end);
+         if(end == buffer.length){
+            //a single row longer than the buffer
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+         }
+         return end;
+      }
+
+      /**
+       * Parses the last line of the input, which has no line break.
+       */
+      private void finish(int end, MatchSink sink) {
+         if(null == quarantine && 0 == columns.length){
+            parseLine(buffer, 0, end, sink);
+         } else {
+            parseRow(0, end, sink);
+         }
+      }
+
+      /**
+       * The one row at a time counterpart of {@link #parseLines(byte[], int, int, MatchSink)}, for rows with leading
+       * columns or a quarantine.
+       */
+      private int parseRows(int to, MatchSink sink) {
+         int lineStart = 0;
+         for(int i = 0; i < to; i++){
+            if('\n' == buffer[i]){
+               parseRow(lineStart, i, sink);
+               lineStart = i + 1;
+            }
+         }
+         return lineStart;
+      }
+
+      private void parseRow(int from, int to, MatchSink sink) {
+         if(null == quarantine){
+            parseColumns(from, to, sink);
+            return;
+         }
+         long line = lineNumber++;
+         parsedRow.clear();
+         try {
+            parseColumns(from, to, parsedRow);
+         } catch (RuntimeException e) {
+            quarantine.reject(buffer, from, to, line, bufferOffset + from, e.getMessage());
+            return;
+         }
+         parsedRow.handTo(sink, columns);
+      }
+
+      private void parseColumns(int from, int to, MatchSink sink) {
+         if(0 == columns.length){
+            parseLine(buffer, from, to, sink);
+            return;
+         }
+         if(trimStart(buffer, from, to) == to){
+            return;
+         }
+         int matchFrom = splitColumns(buffer, from, to, columns);
+         ((ColumnSink) sink).columns(buffer, columns);
+         parseMatch(buffer, from, matchFrom, to, sink);
+      }
+
+      /**
+       * Fills {@code columns} with the offset and length of each trimmed leading column and returns where the match starts.
+       */
+      static int splitColumns(byte[] bytes, int from, int to, int[] columns) {
+         int columnFrom = from;
+         for(int c = 0; c < columns.length; c += 2){
+            int comma = columnFrom;
+            while(comma < to && ',' != bytes[comma]){
+               comma++;
+            }
+            if(comma == to){
+               throw rejected(new RuntimeException(malformed(bytes, from, to)));
+            }
+            int start = trimStart(bytes, columnFrom, comma);
+            columns[c] = start;
+            columns[c + 1] = trimEnd(bytes, start, comma) - start;
+            columnFrom = comma + 1;
+         }
+         return columnFrom;
+      }
+
+      /**
+       * Parses every complete line in the range and returns the number of bytes consumed.
+       */
+      static int parseLines(byte[] bytes, int from, int to, MatchSink sink) {
+         int lineStart = from;
+         for(int i = from; i < to; i++){
+            if('\n' == bytes[i]){
+               parseLine(bytes, lineStart, i, sink);
+               lineStart = i + 1;
+            }
+         }
+         return lineStart - from;
+      }
+
+      static void parseLine(byte[] bytes, int from, int to, MatchSink sink) {
+         parseMatch(bytes, from, from, to, sink);
+      }
+
+      /**
+       * Parses the match held in {@code [from, to)} of the row starting at {@code rowFrom}, which is only used to report
+       * a malformed row in full.
+       */
+      private static void parseMatch(byte[] bytes, int rowFrom, int from, int to, MatchSink sink) {
+         int lineFrom = trimStart(bytes, from, to);
+         if(lineFrom == to){
+            return;
+         }
+         int comma = -1;
+         for(int i = lineFrom; i < to; i++){
+            if(',' == bytes[i]){
+               if(-1 != comma){
+                  throw rejected(new RuntimeException(malformed(bytes, rowFrom, to)));
+               }
+               comma = i;
+            }
+         }
+         if(-1 == comma){
+            throw rejected(new RuntimeException(malformed(bytes, rowFrom, to)));
+         }
+
+         int leftFrom = lineFrom;
+         int leftTo = trimEnd(bytes, leftFrom, comma);
+         int leftSpace = lastSpace(bytes, leftFrom, leftTo);
+
+         int rightFrom = trimStart(bytes, comma + 1, to);
+         int rightTo = trimEnd(bytes, rightFrom, to);
+         int rightSpace = lastSpace(bytes, rightFrom, rightTo);
+
+         if(-1 == leftSpace || -1 == rightSpace){
+            throw rejected(new RuntimeException(malformed(bytes, rowFrom, to)));
+         }
+
+         sink.accept(bytes,
+            leftFrom, leftSpace - leftFrom, parsePoints(bytes, leftSpace + 1, leftTo),
+            rightFrom, rightSpace - rightFrom, parsePoints(bytes, rightSpace + 1, rightTo));
+      }
+
+      static int trimStart(byte[] bytes, int from, int to) {
+         while(from < to && (bytes[from] & 0xFF) <= ' '){
+            from++;
+         }
+         return from;
+      }
+
+      static int trimEnd(byte[] bytes, int from, int to) {
+         while(from < to && (bytes[to - 1] & 0xFF) <= ' '){
+            to--;
+         }
+         return to;
+      }
+
+      static int lastSpace(byte[] bytes, int from, int to) {
+         for(int i = to - 1; i >= from; i--){
+            if(' ' == bytes[i]){
+               return i;
+            }
+         }
+         return -1;
+      }
+
+      static int parsePoints(byte[] bytes, int from, int to) {
+         boolean negative = false;
+         if(from < to && ('-' == bytes[from] || '+' == bytes[from])){
+            negative = '-' == bytes[from];
+            from++;
+         }
+         if(from == to){
+            throw rejected(new NumberFormatException("Missing score"));
+         }
+         long points = 0;
+         for(int i = from; i < to; i++){
+            int digit = bytes[i] - '0';
+            if(0 > digit || 9 < digit){
+               throw rejected(new NumberFormatException(String.format("Invalid score <%s>", new String(bytes, from, to - from, StandardCharsets.UTF_8))));
+            }
+            points = points * 10 + digit;
+            if(Integer.MAX_VALUE < points - (negative ? 1 : 0)){
+               throw rejected(new NumberFormatException(String.format("Score out of range <%s>", new String(bytes, from, to - from, StandardCharsets.UTF_8))));
+            }
+         }
+         return (int) (negative ? -points : points);
+      }
+
+      /**
+       * Counts a row that cannot be parsed, by this or the {@link Scanner} parser, and returns the exception rejecting it.
+       */
+      static RuntimeException rejected(RuntimeException e) {
+         if(INSTRUMENTED){
+            Stats.INSTANCE.rejected(1);
+         }
+         return e;
+      }
+
+      static String malformed(byte[] bytes, int from, int to) {
+         return String.format("Malformed row <%s>", new String(bytes, from, to - from, StandardCharsets.UTF_8));
+      }
+
+      /**
+       * Holds what the parser made of one row until it is handed to the real sink.
+       */
+      private static class ParsedRow implements ColumnSink {
+
+         private byte[] bytes;
+         private boolean hasColumns;
+         private boolean hasMatch;
+         private int leftOffset;
+         private int leftLength;
+         private int leftPoints;
+         private int rightOffset;
+         private int rightLength;
+         private int rightPoints;
+
+         void clear(){
+            hasColumns = false;
+            hasMatch = false;
+         }
+
+         @Override
+         public void columns(byte[] bytes, int[] columns) {
+            this.bytes = bytes;
+            hasColumns = true;
+         }
+
+         @Override
+         public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+            this.bytes = bytes;
+            this.leftOffset = leftOffset;
+            this.leftLength = leftLength;
+            this.leftPoints = leftPoints;
+            this.rightOffset = rightOffset;
+            this.rightLength = rightLength;
+            this.rightPoints = rightPoints;
+            hasMatch = true;
+         }
+
+         void handTo(MatchSink sink, int[] columns){
+            if(hasColumns){
+               ((ColumnSink) sink).columns(bytes, columns);
+            }
+            if(hasMatch){
+               sink.accept(bytes, leftOffset, leftLength, leftPoints, rightOffset, rightLength, rightPoints);
+            }
+         }
+      }
+   }
+
+   /**
+    * Receives the rows a lenient scan could not parse, with their 1-based line number and the offset of their first byte.
+    */
+   interface RowQuarantine {
+      void reject(byte[] bytes, int from, int to, long lineNumber, long byteOffset, String reason);
+   }
+
+   /**
+    * Copies rejected rows verbatim to an optional quarantine stream, one per line, keeps a
+    * {@link ScanResult.Failure} for each and aborts the scan once more than the error budget was rejected.
+    */
+   static class RejectedRows implements RowQuarantine {
+
+      private final OutputStream quarantine;
+      private final long errorBudget;
+      private final List<ScanResult.Failure> failures = new ArrayList<>();
+
+      RejectedRows(OutputStream quarantine, long errorBudget) {
+         this.quarantine = null == quarantine ? null : new BufferedOutputStream(quarantine, 1 << 16);
+         this.errorBudget = errorBudget;
+      }
+
+      @Override
+      public void reject(byte[] bytes, int from, int to, long lineNumber, long byteOffset, String reason) {
+         failures.add(new ScanResult.Failure(lineNumber, byteOffset, reason));
+         if(null != quarantine){
+            try {
+               quarantine.write(bytes, from, to - from);
+               quarantine.write('\n');
+            } catch (IOException e) {
+               throw new RuntimeException(e);
+            }
+         }
+         if(failures.size() > errorBudget){
+            throw new RuntimeException(String.format("Error budget of <%d> rejected rows exceeded at line <%d>", errorBudget, lineNumber));
+         }
+      }
+
+      List<ScanResult.Failure> getFailures() {
+         return failures;
+      }
+
+      void flush() {
+         if(null != quarantine){
+            try {
+               quarantine.flush();
+            } catch (IOException e) {
+               throw new RuntimeException(e);
+            }
+         }
+      }
+   }
+
+   /**
+    * The matches already scored, remembered by a 64 bit fingerprint each, so a feed replaying rows after a reconnect
+    * scores them once. The exact set is open addressed over a {@code long[]} kept at most half full, so it costs 16 to
+    * 32 bytes a match. For histories too long to keep, the Bloom filter keeps {@value #BLOOM_BITS_PER_MATCH} bits a match
+    * for the number of matches it was sized for, whatever comes after; each lookup touches a single cache line of it.
+    * Up to that number, about two new matches in ten thousand are wrongly taken for replays, and more beyond it.
+    */
+   static class MatchFingerprints {
+
+      static final int BLOOM_BITS_PER_MATCH = 20;
+
+      //the largest power of two a long[] can hold, kept at most half full
+      private static final int MAX_EXACT_SLOTS = 1 << 30;
+
+      private static final int BLOOM_HASHES = 10;
+      //a block of the filter is a 64 byte cache line
+      private static final int BLOOM_BLOCK_LONGS = 8;
+
+      //exact set: 0 marks an empty slot, so a zero fingerprint is stored as 1
+      private long[] slots;
+      private int size;
+
+      private final long[] bloom;
+      private final int blocks;
+
+      private MatchFingerprints(long[] slots, long[] bloom) {
+         this.slots = slots;
+         this.bloom = bloom;
+         this.blocks = null == bloom ? 0 : bloom.length / BLOOM_BLOCK_LONGS;
+      }
+
+      static MatchFingerprints exact(){
+         return new MatchFingerprints(new long[16], null);
+      }
+
+      /**
+       * A Bloom filter sized for {@code expectedMatches}.
+       */
+      static MatchFingerprints bloom(long expectedMatches){
+         long blocks = Math.max(1, (expectedMatches * BLOOM_BITS_PER_MATCH + 511) / 512);
+         if(blocks > Integer.MAX_VALUE / BLOOM_BLOCK_LONGS){
+            throw new IllegalArgumentException(String.format("A Bloom filter for <%d> matches is too large", expectedMatches));
+         }
+         return new MatchFingerprints(null, new long[(int) blocks * BLOOM_BLOCK_LONGS]);
+      }
+
+      /**
+       * Remembers the fingerprint and returns whether it is new.
+       */
+      boolean add(long fingerprint){
+         return null == bloom ? addExact(0 == fingerprint ? 1 : fingerprint) : addBloom(fingerprint);
+      }
+
+      private boolean addExact(long fingerprint){
+         int mask = slots.length - 1;
+         int slot = (int) fingerprint & mask;
+         long stored;
+         while(0 != (stored = slots[slot])){
+            if(stored == fingerprint){
+               return false;
+            }
+            slot = (slot + 1) & mask;
+         }
+         slots[slot] = fingerprint;
+         if(++size * 2 > slots.length){
+            if(MAX_EXACT_SLOTS == slots.length){
+               throw new IllegalStateException(String.format(
+                  "More than <%d> distinct matches to remember exactly: use --dedupe <expectedMatches> for a Bloom filter of fixed size", MAX_EXACT_SLOTS / 2));
+            }
+            rehash(slots.length * 2);
+         }
+         return true;
+      }
+
+      private void rehash(int capacity){
+         long[] previous = slots;
+         slots = new long[capacity];
+         int mask = capacity - 1;
+         for(long fingerprint : previous){
+            if(0 != fingerprint){
+               int slot = (int) fingerprint & mask;
+               while(0 != slots[slot]){
+                  slot = (slot + 1) & mask;
+               }
+               slots[slot] = fingerprint;
+            }
+         }
+      }
+
+      private boolean addBloom(long fingerprint){
+         //the high half picks the block; each bit within it is the top 9 bits of a further multiplicative remix, as the
+         //evenly spaced bits of double hashing overlap far more between fingerprints in so small a block
+         int block = (int) (((fingerprint >>> 32) * blocks) >>> 32) * BLOOM_BLOCK_LONGS;
+         long remix = fingerprint;
+         boolean seen = true;
+         for(int i = 0; i < BLOOM_HASHES; i++){
+            remix *= 0x9E3779B97F4A7C15L;
+            int bit = (int) (remix >>> 55);
+            int word = block + (bit >>> 6);
+            long mask = 1L << bit;
+            seen &= 0 != (bloom[word] & mask);
+            bloom[word] |= mask;
+         }
+         return !seen;
+      }
+
+      /**
+       * Fingerprint of a match id.
+       */
+      static long fingerprint(byte[] bytes, int offset, int length){
+         return mix(hash(0xCBF29CE484222325L, bytes, offset, length));
+      }
+
+      /**
+       * Fingerprint of a match without an id: its teams and scores, whatever the spacing of the row.
+       */
+      static long fingerprint(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints){
+         long hash = hash(0xCBF29CE484222325L, bytes, leftOffset, leftLength);
+         hash = (hash ^ leftLength) * 0x100000001B3L;
+         hash = (hash ^ leftPoints) * 0x100000001B3L;
+         hash = hash(hash, bytes, rightOffset, rightLength);
+         hash = (hash ^ rightLength) * 0x100000001B3L;
+         hash = (hash ^ rightPoints) * 0x100000001B3L;
+         return mix(hash);
+      }
+
+      private static long hash(long hash, byte[] bytes, int offset, int length){
+         for(int i = offset; i < offset + length; i++){
+            hash = (hash ^ bytes[i]) * 0x100000001B3L;
+         }
+         return hash;
+      }
+
+      //the finaliser of MurmurHash3, so every bit of the FNV hash reaches every bit of the fingerprint
+      private static long mix(long hash){
+         hash ^= hash >>> 33;
+         hash *= 0xFF51AFD7ED558CCDL;
+         hash ^= hash >>> 33;
+         hash *= 0xC4CEB9FE1A85EC53L;
+         return hash ^ (hash >>> 33);
+      }
+   }
+
+   /**
+    * Passes on the matches it has not seen before, by match id when rows carry one in a leading column and otherwise by
+    * teams and scores, and counts the rest. Without an id, two genuine matches with the same teams and scores are taken
+    * for one.
+    */
+   static class DeduplicatingSink implements ColumnSink {
+
+      private final MatchSink sink;
+      private final MatchFingerprints fingerprints;
+      private final boolean byMatchId;
+      private long matchId;
+      private long duplicates;
+
+      DeduplicatingSink(MatchSink sink, MatchFingerprints fingerprints, boolean byMatchId) {
+         this.sink = sink;
+         this.fingerprints = fingerprints;
+         this.byMatchId = byMatchId;
+      }
+
+      @Override
+      public void columns(byte[] bytes, int[] columns) {
+         matchId = MatchFingerprints.fingerprint(bytes, columns[0], columns[1]);
+      }
+
+      @Override
+      public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+         long fingerprint = byMatchId ? matchId : MatchFingerprints.fingerprint(bytes, leftOffset, leftLength, leftPoints, rightOffset, rightLength, rightPoints);
+         if(fingerprints.add(fingerprint)){
+            sink.accept(bytes, leftOffset, leftLength, leftPoints, rightOffset, rightLength, rightPoints);
+         } else {
+            duplicates++;
+         }
+      }
+
+      long getDuplicates(){
+         return duplicates;
+      }
+   }
+
+   static class TeamAndScoresPair {
+      final TeamAndScore left;
+      final TeamAndScore right;
+
+      TeamAndScoresPair(TeamAndScore left, TeamAndScore right) {
+         this.left = left;
+         this.right = right;
+      }
+   }
+
+   /**
+    * Points for a win, a draw and a loss, and the tie-breakers that order teams level on points before their names do.
+    * Teams level on points and every tie-breaker share a rank. Rules without tie-breakers score on
+    * {@link ScoresAccumulator} itself; tie-breakers need the goals of each team, kept by a {@link GoalsAccumulator}.
+    */
+   public static class ScoringRules {
+
+      public static final ScoringRules DEFAULT = new ScoringRules(3, 1, 0);
+
+      /**
+       * A ranking key of a team from its goals, higher ranking first.
+       */
+      public enum TieBreaker {
+         GOAL_DIFFERENCE {
+            @Override
+            long keyOf(long goalsFor, long goalsAgainst) {
+               return goalsFor - goalsAgainst;
+            }
+         },
+         GOALS_FOR {
+            @Override
+            long keyOf(long goalsFor, long goalsAgainst) {
+               return goalsFor;
+            }
+         },
+         //fewer goals against ranks higher
+         GOALS_AGAINST {
+            @Override
+            long keyOf(long goalsFor, long goalsAgainst) {
+               return -goalsAgainst;
+            }
+         };
+
+         abstract long keyOf(long goalsFor, long goalsAgainst);
+      }
+
+      final int win;
+      final int draw;
+      final int loss;
+      final TieBreaker[] tieBreakers;
+
+      public ScoringRules(int win, int draw, int loss, TieBreaker... tieBreakers) {
+         this.win = win;
+         this.draw = draw;
+         this.loss = loss;
+         this.tieBreakers = tieBreakers.clone();
+      }
+
+      /**
+       * Parses points as {@code win/draw/loss}, e.g. {@code 3/1/0}, and tie-breakers as a comma separated list of
+       * {@code gd} (goal difference), {@code gf} (goals for) and {@code ga} (goals against), or null for none.
+       */
+      static ScoringRules parse(String points, String tieBreakers){
+         String[] values = points.split("/");
+         if(3 != values.length){
+            throw new RuntimeException(String.format("Expecting points as win/draw/loss - got <%s>", points));
+         }
+         List<TieBreaker> parsed = new ArrayList<>();
+         for(String tieBreaker : null == tieBreakers ? new String[0] : tieBreakers.split(",")){
+            switch(tieBreaker.trim()){
+               case "gd":
+                  parsed.add(TieBreaker.GOAL_DIFFERENCE);
+                  break;
+               case "gf":
+                  parsed.add(TieBreaker.GOALS_FOR);
+                  break;
+               case "ga":
+                  parsed.add(TieBreaker.GOALS_AGAINST);
+                  break;
+               default:
+                  throw new RuntimeException(String.format("Unknown tie-breaker <%s>", tieBreaker));
+            }
+         }
+         return new ScoringRules(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()), Integer.parseInt(values[2].trim()),
+            parsed.toArray(new TieBreaker[0]));
+      }
+
+      int points(int scored, int conceded){
+         if(scored == conceded){
+            return draw;
+         }
+         return scored > conceded ? win : loss;
+      }
+
+      /**
+       * A fresh accumulator scoring by these rules: the plain one, untouched, for 3/1/0 without tie-breakers.
+       */
+      ScoresAccumulator newAccumulator(){
+         ScoresAccumulator scoresAccumulator = 0 == tieBreakers.length ? new ScoresAccumulator() : new GoalsAccumulator(this);
+         if(3 != win || 1 != draw || 0 != loss){
+            scoresAccumulator.determinePoints = this::points;
+         }
+         return scoresAccumulator;
+      }
+   }
+
+   static class Scoreboard {
+
+      //a heap is used for the first limit teams only while limit is below this fraction of the table
+      static final int HEAP_LIMIT_RATIO = 8;
+
+      final TeamDictionary teams;
+      //indexed by team id, one entry per team known when the scoreboard was built
+      final long[] points;
+      final ScoringRules rules;
+      //indexed like points, null unless the rules have tie-breakers
+      final long[] goalsFor;
+      final long[] goalsAgainst;
+
+      Scoreboard(TeamDictionary teams, long[] points) {
+         this(teams, points, ScoringRules.DEFAULT, null, null);
+      }
+
+      Scoreboard(TeamDictionary teams, long[] points, ScoringRules rules, long[] goalsFor, long[] goalsAgainst) {
+         this.teams = teams;
+         this.points = points;
+         this.rules = rules;
+         this.goalsFor = goalsFor;
+         this.goalsAgainst = goalsAgainst;
+      }
+
+      void printScoreboard() {
+         printScoreboard(Integer.MAX_VALUE);
+      }
+
+      /**
+       * Prints the first {@code topK} rows only; the rest of the table is never sorted.
+       */
+      void printScoreboard(int topK) {
+         try {
+            new ScoreboardWriter(System.out).write(this, topK);
+         } catch (IOException e) {
+            throw new RuntimeException(e);
+         }
+      }
+
+      /**
+       * Ids of the first {@code limit} teams in standings order. For a short prefix a heap holding the best
+       * {@code limit} teams seen so far is kept while scanning, so the cost is O(n log limit); otherwise the whole table is
+       * ranked by {@link RankingSort}.
+       */
+      int[] rankedIds(int limit){
+         if(HEAP_LIMIT_RATIO * (long) limit >= points.length){
+            int[] ranked = RankingSort.rank(teams, rankingKeys());
+            return limit < ranked.length ? Arrays.copyOf(ranked, Math.max(0, limit)) : ranked;
+         }
+         int[] heap = new int[Math.max(0, Math.min(limit, points.length))];
+         int size = 0;
+         for(int id = 0; id < points.length && 0 < heap.length; id++){
+            if(size < heap.length){
+               heap[size] = id;
+               siftUp(heap, size++);
+            } else if(ranksBefore(id, heap[0])){
+               heap[0] = id;
+               siftDown(heap, 0, size);
+            }
+         }
+         //the heap keeps the worst team on top, so popping fills the result from the back
+         while(1 < size){
+            int worst = heap[0];
+            heap[0] = heap[--size];
+            heap[size] = worst;
+            siftDown(heap, 0, size);
+         }
+         return heap;
+      }
+
+      boolean ranksBefore(int a, int b){
+         if(points[a] != points[b]){
+            return points[a] > points[b];
+         }
+         if(null != goalsFor){
+            for(ScoringRules.TieBreaker tieBreaker : rules.tieBreakers){
+               long aKey = tieBreaker.keyOf(goalsFor[a], goalsAgainst[a]);
+               long bKey = tieBreaker.keyOf(goalsFor[b], goalsAgainst[b]);
+               if(aKey != bKey){
+                  return aKey > bKey;
+               }
+            }
+         }
+         return 0 > teams.compare(a, b);
+      }
+
+      /**
+       * Points, then the key of each tie-breaker of the rules, for {@link RankingSort}; teams equal on all share a rank.
+       */
+      IntToLongFunction[] rankingKeys(){
+         IntToLongFunction[] keys = new IntToLongFunction[1 + (null == goalsFor ? 0 : rules.tieBreakers.length)];
+         keys[0] = id -> points[id];
+         for(int k = 1; k < keys.length; k++){
+            ScoringRules.TieBreaker tieBreaker = rules.tieBreakers[k - 1];
+            keys[k] = id -> tieBreaker.keyOf(goalsFor[id], goalsAgainst[id]);
+         }
+         return keys;
+      }
+
+      private void siftUp(int[] heap, int index){
+         while(0 < index){
+            int parent = (index - 1) >>> 1;
+            if(!ranksBefore(heap[parent], heap[index])){
+               return;
+            }
+            swap(heap, parent, index);
+            index = parent;
+         }
+      }
+
+      private void siftDown(int[] heap, int index, int size){
+         while(true){
+            int worst = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if(left < size && ranksBefore(heap[worst], heap[left])){
+               worst = left;
+            }
+            if(right < size && ranksBefore(heap[worst], heap[right])){
+               worst = right;
+            }
+            if(worst == index){
+               return;
+            }
+            swap(heap, worst, index);
+            index = worst;
+         }
+      }
+
+      private static void swap(int[] ids, int a, int b){
+         int id = ids[a];
+         ids[a] = ids[b];
+         ids[b] = id;
+      }
+
+      List<String> prepareScoreboard(){
+         StageEvent event = INSTRUMENTED ? new PrepareScoreboardEvent().started() : null;
+         IntToLongFunction[] keys = rankingKeys();
+         int[] ranked = RankingSort.rank(teams, keys);
+         List<String> scoreboardRows = new ArrayList<>(ranked.length);
+         int rank = 0;
+         for(int i = 0; i < ranked.length; i++){
+            long score = points[ranked[i]];
+            //teams on the same points, and tie-breakers if any, share a rank
+            if(0 == i || score != points[ranked[i - 1]] || 1 < keys.length && !RankingSort.sameKeys(keys, ranked[i], ranked[i - 1])){
+               rank++;
+            }
+            scoreboardRows.add(formatRow(rank, teams.nameOf(ranked[i]), score));
+         }
+         if(null != event){
+            event.finish(scoreboardRows.size());
+         }
+         return scoreboardRows;
+      }
+
+      static String formatRow(int rank, String team, long points){
+         return String.format("%d. %s, %d pts", rank, team, points);
+      }
+   }
+
+   /**
+    * Puts a whole table in standings order in linear time and memory, with radix sorts instead of comparisons. Teams are
+    * first ordered by the first eight UTF-8 bytes of their names, taken straight from the dictionary, a byte a pass.
+    * They are then stably ordered by points with one counting sort, since totals are small and bounded by three points
+    * a game; totals spread too wide for that take a byte a pass as well. Every pass reads its arrays in order, so a table
+    * far larger than the caches still sorts at memory speed. Teams left sharing their points and those eight bytes are
+    * sorted further by name, eight bytes a round. Tie-breaking keys, goal difference say, are sorted the same way as
+    * points, just before them. No names are decoded, and no ids or points are boxed.
+    */
+   static class RankingSort {
+
+      //counting sort is used while the spread of totals is within this or the number of teams, whichever is larger
+      static final int COUNTING_RANGE = 1 << 20;
+
+      static final int INSERTION_SORT_THRESHOLD = 16;
+
+      private final TeamNames teams;
+      private final int[] ids;
+      //eight bytes of each name, zero padded, kept next to the ids so the dictionary is read once a round
+      private final long[] prefixes;
+      private final int[] scratchIds;
+      private final long[] scratchPrefixes;
+      private final int[] starts = new int[257];
+      private final int[][] counts = new int[Long.BYTES][257];
+
+      private RankingSort(TeamNames teams, int size) {
+         this.teams = teams;
+         this.ids = new int[size];
+         this.prefixes = new long[size];
+         this.scratchIds = new int[size];
+         this.scratchPrefixes = new long[size];
+      }
+
+      /**
+       * Returns every team id, highest points first and by name within equal points.
+       */
+      static int[] rank(TeamNames teams, long[] points){
+         return rank(teams, id -> points[id]);
+      }
+
+      /**
+       * Ranks every team of the table by its {@code keys}, highest first, the first key deciding and each further key
+       * breaking the ties left by those before it, then by name.
+       */
+      static int[] rank(TeamNames teams, IntToLongFunction... keys){
+         return new RankingSort(teams, teams.size()).rank(keys);
+      }
+
+      private int[] rank(IntToLongFunction[] keys){
+         int n = ids.length;
+         if(0 == n){
+            return ids;
+         }
+         for(int id = 0; id < n; id++){
+            ids[id] = id;
+            prefixes[id] = teams.prefixOf(id, 0);
+         }
+         for(int shift = 0; shift < Long.SIZE; shift += Byte.SIZE){
+            distribute(prefixes, null, shift);
+         }
+         //stable passes from the least significant key, so the first key ends up deciding
+         for(int k = keys.length - 1; k >= 0; k--){
+            distributeByKey(keys[k]);
+         }
+
+         int runStart = 0;
+         for(int i = 1; i <= n; i++){
+            if(i == n || prefixes[i] != prefixes[runStart] || !sameKeys(keys, ids[i], ids[runStart])){
+               if(1 < i - runStart){
+                  sortRun(runStart, i, 0);
+               }
+               runStart = i;
+            }
+         }
+         return ids;
+      }
+
+      static boolean sameKeys(IntToLongFunction[] keys, int a, int b){
+         for(IntToLongFunction key : keys){
+            if(key.applyAsLong(a) != key.applyAsLong(b)){
+               return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * Stably orders the ids and prefixes by the key, highest first: one counting sort when the keys are spread narrowly
+       * enough, a byte a pass otherwise.
+       */
+      private void distributeByKey(IntToLongFunction key){
+         int n = ids.length;
+         long min = Long.MAX_VALUE;
+         long max = Long.MIN_VALUE;
+         for(int id = 0; id < n; id++){
+            long value = key.applyAsLong(id);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+         }
+         //compared unsigned so a spread overflowing a long is simply too wide
+         long spread = max - min;
+         if(0 <= Long.compareUnsigned(Math.max(COUNTING_RANGE, n), spread)){
+            distributeByPoints(key, max, (int) spread + 1);
+         } else {
+            //complemented with the sign flipped, so ascending radix keys are descending values
+            long[] keys = new long[n];
+            for(int i = 0; i < n; i++){
+               keys[i] = ~(key.applyAsLong(ids[i]) ^ Long.MIN_VALUE);
+            }
+            long[] scratchKeys = new long[n];
+            for(int shift = 0; shift < Long.SIZE; shift += Byte.SIZE){
+               distribute(keys, scratchKeys, shift);
+            }
+         }
+      }
+
+      /**
+       * One stable counting sort pass of the ids and prefixes on the byte of {@code keys} at {@code shift}; keys other
+       * than the prefixes move along through {@code scratchKeys}. A byte all keys share is skipped.
+       */
+      private void distribute(long[] keys, long[] scratchKeys, int shift){
+         int n = ids.length;
+         Arrays.fill(starts, 0);
+         for(int i = 0; i < n; i++){
+            starts[(int) (keys[i] >>> shift & 0xFF) + 1]++;
+         }
+         if(n == starts[(int) (keys[0] >>> shift & 0xFF) + 1]){
+            return;
+         }
+         for(int bucket = 1; bucket <= 256; bucket++){
+            starts[bucket] += starts[bucket - 1];
+         }
+         for(int i = 0; i < n; i++){
+            int target = starts[(int) (keys[i] >>> shift & 0xFF)]++;
+            scratchIds[target] = ids[i];
+            scratchPrefixes[target] = prefixes[i];
+            if(null != scratchKeys){
+               scratchKeys[target] = keys[i];
+            }
+         }
+         System.arraycopy(scratchIds, 0, ids, 0, n);
+         System.arraycopy(scratchPrefixes, 0, prefixes, 0, n);
+         if(null != scratchKeys){
+            System.arraycopy(scratchKeys, 0, keys, 0, n);
+         }
+      }
+
+      /**
+       * One stable counting sort pass of the ids and prefixes by points, highest first.
+       */
+      private void distributeByPoints(IntToLongFunction points, long max, int range){
+         int n = ids.length;
+         int[] tierStarts = new int[range + 1];
+         for(int id = 0; id < n; id++){
+            tierStarts[(int) (max - points.applyAsLong(id)) + 1]++;
+         }
+         for(int tier = 1; tier <= range; tier++){
+            tierStarts[tier] += tierStarts[tier - 1];
+         }
+         for(int i = 0; i < n; i++){
+            int target = tierStarts[(int) (max - points.applyAsLong(ids[i]))]++;
+            scratchIds[target] = ids[i];
+            scratchPrefixes[target] = prefixes[i];
+         }
+         System.arraycopy(scratchIds, 0, ids, 0, n);
+         System.arraycopy(scratchPrefixes, 0, prefixes, 0, n);
+      }
+
+      /**
+       * Sorts {@code ids[from, to)}, whose names share their first {@code depth + 8} bytes once zero padded, by name.
+       * Zero padding never puts two names the wrong way round, at worst it leaves them sharing a prefix; of those, the
+       * names ending within these eight bytes are prefixes of one another and come first, and the rest go another round.
+       */
+      private void sortRun(int from, int to, int depth){
+         int continuing = from;
+         for(int i = from; i < to; i++){
+            if(teams.lengthOf(ids[i]) <= depth + Long.BYTES){
+               swap(continuing++, i);
+            }
+         }
+         insertionSort(from, continuing, depth);
+         sortNames(continuing, to, depth + Long.BYTES);
+      }
+
+      /**
+       * Sorts {@code ids[from, to)}, which all share their first {@code depth} name bytes, by name.
+       */
+      private void sortNames(int from, int to, int depth){
+         if(INSERTION_SORT_THRESHOLD >= to - from){
+            insertionSort(from, to, depth);
+            return;
+         }
+         for(int i = from; i < to; i++){
+            prefixes[i] = teams.prefixOf(ids[i], depth);
+         }
+         sortByPrefix(from, to, 0);
+         int runStart = from;
+         for(int i = from + 1; i <= to; i++){
+            if(i == to || prefixes[i] != prefixes[runStart]){
+               if(1 < i - runStart){
+                  sortRun(runStart, i, depth);
+               }
+               runStart = i;
+            }
+         }
+      }
+
+      /**
+       * Most significant byte first radix sort of the prefixes in {@code [from, to)}, which share their first
+       * {@code byteIndex} bytes, moving the ids along.
+       */
+      private void sortByPrefix(int from, int to, int byteIndex){
+         if(INSERTION_SORT_THRESHOLD >= to - from){
+            for(int i = from + 1; i < to; i++){
+               long prefix = prefixes[i];
+               int id = ids[i];
+               int j = i;
+               while(j > from && 0 < Long.compareUnsigned(prefixes[j - 1], prefix)){
+                  prefixes[j] = prefixes[j - 1];
+                  ids[j] = ids[j - 1];
+                  j--;
+               }
+               prefixes[j] = prefix;
+               ids[j] = id;
+            }
+            return;
+         }
+         int shift = Long.SIZE - Byte.SIZE * (byteIndex + 1);
+         int[] bucketStarts = counts[byteIndex];
+         //a byte all the prefixes share is stepped over without moving anything
+         while(true){
+            Arrays.fill(bucketStarts, 0);
+            for(int i = from; i < to; i++){
+               bucketStarts[(int) (prefixes[i] >>> shift & 0xFF) + 1]++;
+            }
+            if(to - from != bucketStarts[(int) (prefixes[from] >>> shift & 0xFF) + 1]){
+               break;
+            }
+            if(Long.BYTES == ++byteIndex){
+               return;
+            }
+            shift -= Byte.SIZE;
+            bucketStarts = counts[byteIndex];
+         }
+         for(int bucket = 1; bucket <= 256; bucket++){
+            bucketStarts[bucket] += bucketStarts[bucket - 1];
+         }
+         for(int i = from; i < to; i++){
+            int target = from + bucketStarts[(int) (prefixes[i] >>> shift & 0xFF)]++;
+            scratchPrefixes[target] = prefixes[i];
+            scratchIds[target] = ids[i];
+         }
+         System.arraycopy(scratchPrefixes, from, prefixes, from, to - from);
+         System.arraycopy(scratchIds, from, ids, from, to - from);
+         if(Long.BYTES == byteIndex + 1){
+            return;
+         }
+         //after distributing, bucketStarts[bucket] is where the next bucket begins
+         int bucketStart = from;
+         for(int bucket = 0; bucket < 256; bucket++){
+            int bucketEnd = from + bucketStarts[bucket];
+            if(1 < bucketEnd - bucketStart){
+               sortByPrefix(bucketStart, bucketEnd, byteIndex + 1);
+            }
+            bucketStart = bucketEnd;
+         }
+      }
+
+      /**
+       * Orders a few ids sharing their first {@code depth} name bytes.
+       */
+      private void insertionSort(int from, int to, int depth){
+         for(int i = from + 1; i < to; i++){
+            int id = ids[i];
+            int j = i;
+            while(j > from && 0 < teams.compareFrom(ids[j - 1], id, depth)){
+               ids[j] = ids[j - 1];
+               j--;
+            }
+            ids[j] = id;
+         }
+      }
+
+      private void swap(int a, int b){
+         int id = ids[a];
+         ids[a] = ids[b];
+         ids[b] = id;
+      }
+   }
+
+   /**
+    * Renders scoreboard rows straight into a reusable byte buffer, formatting the numbers by hand and copying the
+    * UTF-8 team names from the dictionary, and hands the buffer to the sink only when it is full or at the end.
+    */
+   static class ScoreboardWriter {
+
+      static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+      private static final byte[] RANK_SEPARATOR = ". ".getBytes(StandardCharsets.UTF_8);
+      private static final byte[] NAME_SEPARATOR = ", ".getBytes(StandardCharsets.UTF_8);
+      private static final byte[] POINTS_SUFFIX = " pts".getBytes(StandardCharsets.UTF_8);
+      private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+      private final OutputStream outputStream;
+      private final WritableByteChannel channel;
+      private final byte[] buffer;
+      private final byte[] digits = new byte[20];
+      private int position;
+
+      ScoreboardWriter(OutputStream outputStream) {
+         this(outputStream, null, DEFAULT_BUFFER_SIZE);
+      }
+
+      ScoreboardWriter(WritableByteChannel channel) {
+         this(null, channel, DEFAULT_BUFFER_SIZE);
+      }
+
+      ScoreboardWriter(OutputStream outputStream, WritableByteChannel channel, int bufferSize) {
+         this.outputStream = outputStream;
+         this.channel = channel;
+         this.buffer = new byte[Math.max(bufferSize, digits.length + 1)];
+      }
+
+      void write(Scoreboard scoreboard) throws IOException {
+         write(scoreboard, Integer.MAX_VALUE);
+      }
+
+      /**
+       * Writes the first {@code topK} rows of the scoreboard and flushes once.
+       */
+      void write(Scoreboard scoreboard, int topK) throws IOException {
+         StageEvent event = INSTRUMENTED ? new PrepareScoreboardEvent().started() : null;
+         int[] ids = scoreboard.rankedIds(topK);
+         write(scoreboard.teams, ids, scoreboard.rankingKeys());
+         if(null != event){
+            event.finish(ids.length);
+         }
+      }
+
+      /**
+       * Writes a row for each of the ranked ids, already in standings order, and flushes once. The first key is the points
+       * written; a team equal to the one before on every key shares its rank.
+       */
+      void write(TeamNames teams, int[] ids, IntToLongFunction... keys) throws IOException {
+         IntToLongFunction teamPoints = keys[0];
+         int rank = 0;
+         long previous = 0;
+         for(int i = 0; i < ids.length; i++){
+            long points = teamPoints.applyAsLong(ids[i]);
+            if(0 == i || points != previous || 1 < keys.length && !RankingSort.sameKeys(keys, ids[i], ids[i - 1])){
+               rank++;
+            }
+            previous = points;
+            writeNumber(rank);
+            writeBytes(RANK_SEPARATOR, 0, RANK_SEPARATOR.length);
+            writeName(teams, ids[i]);
+            writeBytes(NAME_SEPARATOR, 0, NAME_SEPARATOR.length);
+            writeNumber(points);
+            writeBytes(POINTS_SUFFIX, 0, POINTS_SUFFIX.length);
+            writeBytes(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+         }
+         flush();
+      }
+
+      private void writeNumber(long value) throws IOException {
+         int start = digits.length;
+         long remaining = value;
+         do {
+            digits[--start] = (byte) ('0' + Math.abs(remaining % 10));
+            remaining /= 10;
+         } while(0 != remaining);
+         if(0 > value){
+            digits[--start] = '-';
+         }
+         writeBytes(digits, start, digits.length - start);
+      }
+
+      private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+         while(0 < length){
+            if(position == buffer.length){
+               drain();
+            }
+            int chunk = Math.min(length, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+         }
+      }
+
+      private void writeName(TeamNames teams, int id) throws IOException {
+         int length = teams.lengthOf(id);
+         int from = 0;
+         while(from < length){
+            if(position == buffer.length){
+               drain();
+            }
+            int chunk = Math.min(length - from, buffer.length - position);
+            teams.copyName(id, from, buffer, position, chunk);
+            position += chunk;
+            from += chunk;
+         }
+      }
+
+      private void drain() throws IOException {
+         if(null != outputStream){
+            outputStream.write(buffer, 0, position);
+         } else {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, position);
+            while(byteBuffer.hasRemaining()){
+               channel.write(byteBuffer);
+            }
+         }
+         position = 0;
+      }
+
+      void flush() throws IOException {
+         drain();
+         if(null != outputStream){
+            outputStream.flush();
+         }
+      }
+   }
+
+   static class ScoresAccumulator implements ChunkSink<ScoresAccumulator> {
+
+      final TeamDictionary teams = new TeamDictionary();
+
+      //running totals indexed by team id, updated as each match arrives so memory is bounded by the number of teams
+      long[] points = new long[16];
+
+      long matches;
+
+      //3 points for a win, 1 for a draw, none for a loss
+      static final IntBinaryOperator DEFAULT_POINTS = (a, b) -> {
+         if(a == b){
+            return 1;
+         }
+         if(a > b){
+            return 3;
+         }
+         return 0;
+      };
+
+      IntBinaryOperator determinePoints = DEFAULT_POINTS;
+
+      ToIntFunction<TeamAndScoresPair> getScoreForLeft = teamAndScoresPair -> determinePoints.applyAsInt(teamAndScoresPair.left.score.points, teamAndScoresPair.right.score.points);
+      ToIntFunction<TeamAndScoresPair> getScoreForRight = teamAndScoresPair -> determinePoints.applyAsInt(teamAndScoresPair.right.score.points, teamAndScoresPair.left.score.points);
+
+      void add(TeamAndScoresPair teamAndScoresPair){
+         matches++;
+         addPoints(teams.intern(teamAndScoresPair.left.team.nameBytes()), getScoreForLeft.applyAsInt(teamAndScoresPair));
+         addPoints(teams.intern(teamAndScoresPair.right.team.nameBytes()), getScoreForRight.applyAsInt(teamAndScoresPair));
+      }
+
+      @Override
+      public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+         int left = teams.intern(bytes, leftOffset, leftLength);
+         int right = teams.intern(bytes, rightOffset, rightLength);
+         addMatch(left, right, leftPoints, rightPoints);
+      }
+
+      /**
+       * Scores a match between two teams already interned in {@link #teams}.
+       */
+      void addMatch(int left, int right, int leftPoints, int rightPoints){
+         matches++;
+         addPoints(left, determinePoints.applyAsInt(leftPoints, rightPoints));
+         addPoints(right, determinePoints.applyAsInt(rightPoints, leftPoints));
+      }
+
+      /**
+       * Folds another (partial) accumulator into this one and returns this.
+       */
+      @Override
+      public ScoresAccumulator merge(ScoresAccumulator other){
+         matches += other.matches;
+         TeamDictionary otherTeams = other.teams;
+         for(int otherId = 0; otherId < otherTeams.size(); otherId++){
+            int id = teams.intern(otherTeams.nameBytes(), otherTeams.offsetOf(otherId), otherTeams.lengthOf(otherId));
+            addPoints(id, other.points[otherId]);
+         }
+         return this;
+      }
+
+      @Override
+      public long getMatches(){
+         return matches;
+      }
+
+      long pointsOf(int id){
+         return id < points.length ? points[id] : 0;
+      }
+
+      /**
+       * Writes every team with its total: the team count, then per team the length of the UTF-8 name, the name and
+       * the points.
+       */
+      void writeTotals(DataOutput dataOutput) throws IOException {
+         dataOutput.writeInt(teams.size());
+         for(int id = 0; id < teams.size(); id++){
+            dataOutput.writeInt(teams.lengthOf(id));
+            dataOutput.write(teams.nameBytes(), teams.offsetOf(id), teams.lengthOf(id));
+            dataOutput.writeLong(pointsOf(id));
+         }
+      }
+
+      /**
+       * Adds totals written by {@link #writeTotals(DataOutput)} to this accumulator.
+       */
+      void readTotals(DataInput dataInput) throws IOException {
+         int teamCount = dataInput.readInt();
+         byte[] name = new byte[64];
+         for(int i = 0; i < teamCount; i++){
+            int length = dataInput.readInt();
+            if(length > name.length){
+               name = new byte[Math.max(length, name.length * 2)];
+            }
+            dataInput.readFully(name, 0, length);
+            addPoints(teams.intern(name, 0, length), dataInput.readLong());
+         }
+      }
+
+      void addPoints(int id, long amount){
+         if(id >= points.length){
+            points = Arrays.copyOf(points, Math.max(id + 1, points.length * 2));
+         }
+         points[id] += amount;
+      }
+
+      /**
+       * Snapshot of the current totals; later calls to {@link #add} do not affect the returned scoreboard.
+       */
+      Scoreboard buildScoreboard(){
+         StageEvent event = INSTRUMENTED ? new BuildScoreboardEvent().started() : null;
+         Scoreboard scoreboard = new Scoreboard(teams, Arrays.copyOf(points, teams.size()));
+         if(null != event){
+            event.finish(scoreboard.points.length);
+         }
+         return scoreboard;
+      }
+   }
+
+   /**
+    * Same scoring as {@link ScoresAccumulator}, with names and totals kept in an {@link OffHeapTeamTable}. The standings
+    * are written straight from the table rather than copied into a {@link Scoreboard}.
+    */
+   static class OffHeapScoresAccumulator implements ChunkSink<OffHeapScoresAccumulator>, Closeable {
+
+      final OffHeapTeamTable teams;
+
+      long matches;
+
+      IntBinaryOperator determinePoints = ScoresAccumulator.DEFAULT_POINTS;
+
+      //holds a name being moved between tables on merge
+      private byte[] name = new byte[64];
+
+      OffHeapScoresAccumulator(Path spillDirectory, int pageSize) {
+         this.teams = new OffHeapTeamTable(spillDirectory, pageSize);
+      }
+
+      @Override
+      public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+         matches++;
+         teams.addPoints(teams.intern(bytes, leftOffset, leftLength), determinePoints.applyAsInt(leftPoints, rightPoints));
+         teams.addPoints(teams.intern(bytes, rightOffset, rightLength), determinePoints.applyAsInt(rightPoints, leftPoints));
+      }
+
+      /**
+       * Folds another (partial) accumulator into this one, closes it and returns this.
+       */
+      @Override
+      public OffHeapScoresAccumulator merge(OffHeapScoresAccumulator other){
+         matches += other.matches;
+         OffHeapTeamTable otherTeams = other.teams;
+         for(int otherId = 0; otherId < otherTeams.size(); otherId++){
+            int length = otherTeams.lengthOf(otherId);
+            if(length > name.length){
+               name = new byte[Math.max(length, name.length * 2)];
+            }
+            otherTeams.copyName(otherId, 0, name, 0, length);
+            teams.addPoints(teams.intern(name, 0, length), otherTeams.pointsOf(otherId));
+         }
+         other.close();
+         return this;
+      }
+
+      @Override
+      public long getMatches(){
+         return matches;
+      }
+
+      /**
+       * Writes the standings, ranked by {@link RankingSort} and formatted by {@link ScoreboardWriter}, to the stream.
+       */
+      void writeStandings(OutputStream outputStream) throws IOException {
+         StageEvent event = INSTRUMENTED ? new PrepareScoreboardEvent().started() : null;
+         int[] ids = RankingSort.rank(teams, teams::pointsOf);
+         new ScoreboardWriter(outputStream).write(teams, ids, teams::pointsOf);
+         if(null != event){
+            event.finish(ids.length);
+         }
+      }
+
+      @Override
+      public void close() {
+         teams.close();
+      }
+   }
+
+   /**
+    * Keeps the goals each team scored and conceded next to its points, in primitive arrays indexed by team id like the
+    * points, for rules with tie-breakers.
+    */
+   static class GoalsAccumulator extends ScoresAccumulator {
+
+      final ScoringRules rules;
+      long[] goalsFor = new long[16];
+      long[] goalsAgainst = new long[16];
+
+      GoalsAccumulator(ScoringRules rules) {
+         this.rules = rules;
+      }
+
+      @Override
+      void add(TeamAndScoresPair teamAndScoresPair){
+         addMatch(teams.intern(teamAndScoresPair.left.team.nameBytes()), teams.intern(teamAndScoresPair.right.team.nameBytes()),
+            teamAndScoresPair.left.score.points, teamAndScoresPair.right.score.points);
+      }
+
+      @Override
+      void addMatch(int left, int right, int leftPoints, int rightPoints){
+         super.addMatch(left, right, leftPoints, rightPoints);
+         addGoals(left, leftPoints, rightPoints);
+         addGoals(right, rightPoints, leftPoints);
+      }
+
+      @Override
+      public ScoresAccumulator merge(ScoresAccumulator other){
+         super.merge(other);
+         if(other instanceof GoalsAccumulator){
+            GoalsAccumulator otherGoals = (GoalsAccumulator) other;
+            TeamDictionary otherTeams = other.teams;
+            for(int otherId = 0; otherId < otherTeams.size(); otherId++){
+               int id = teams.find(otherTeams.nameBytes(), otherTeams.offsetOf(otherId), otherTeams.lengthOf(otherId));
+               addGoals(id, otherGoals.goalsFor[otherId], otherGoals.goalsAgainst[otherId]);
+            }
+         }
+         return this;
+      }
+
+      private void addGoals(int id, long scored, long conceded){
+         if(id >= goalsFor.length){
+            int length = Math.max(id + 1, goalsFor.length * 2);
+            goalsFor = Arrays.copyOf(goalsFor, length);
+            goalsAgainst = Arrays.copyOf(goalsAgainst, length);
+         }
+         goalsFor[id] += scored;
+         goalsAgainst[id] += conceded;
+      }
+
+      @Override
+      Scoreboard buildScoreboard(){
+         StageEvent event = INSTRUMENTED ? new BuildScoreboardEvent().started() : null;
+         int size = teams.size();
+         Scoreboard scoreboard = new Scoreboard(teams, Arrays.copyOf(points, size), rules,
+            Arrays.copyOf(goalsFor, size), Arrays.copyOf(goalsAgainst, size));
+         if(null != event){
+            event.finish(scoreboard.points.length);
+         }
+         return scoreboard;
+      }
+   }
+
+   /**
+    * Scores like {@link ScoresAccumulator} and keeps every match too, its teams and goals in four primitive columns
+    * indexed by match id, the order the matches arrived in, to build a {@link MatchIndex} from. A partial merges the
+    * matches of the next one after its own, so a chunked scan numbers matches as a scan of the stream would.
+    */
+   static class IndexingAccumulator extends ScoresAccumulator {
+
+      int[] leftTeams = new int[16];
+      int[] rightTeams = new int[16];
+      int[] leftGoals = new int[16];
+      int[] rightGoals = new int[16];
+      int size;
+
+      @Override
+      void add(TeamAndScoresPair teamAndScoresPair){
+         addMatch(teams.intern(teamAndScoresPair.left.team.nameBytes()), teams.intern(teamAndScoresPair.right.team.nameBytes()),
+            teamAndScoresPair.left.score.points, teamAndScoresPair.right.score.points);
+      }
+
+      @Override
+      void addMatch(int left, int right, int leftPoints, int rightPoints){
+         super.addMatch(left, right, leftPoints, rightPoints);
+         record(left, right, leftPoints, rightPoints);
+      }
+
+      @Override
+      public ScoresAccumulator merge(ScoresAccumulator other){
+         super.merge(other);
+         IndexingAccumulator otherMatches = (IndexingAccumulator) other;
+         TeamDictionary otherTeams = other.teams;
+         int[] ids = new int[otherTeams.size()];
+         for(int otherId = 0; otherId < ids.length; otherId++){
+            ids[otherId] = teams.find(otherTeams.nameBytes(), otherTeams.offsetOf(otherId), otherTeams.lengthOf(otherId));
+         }
+         for(int match = 0; match < otherMatches.size; match++){
+            record(ids[otherMatches.leftTeams[match]], ids[otherMatches.rightTeams[match]], otherMatches.leftGoals[match], otherMatches.rightGoals[match]);
+         }
+         return this;
+      }
+
+      private void record(int left, int right, int leftPoints, int rightPoints){
+         if(size == leftTeams.length){
+            int length = size * 2;
+            leftTeams = Arrays.copyOf(leftTeams, length);
+            rightTeams = Arrays.copyOf(rightTeams, length);
+            leftGoals = Arrays.copyOf(leftGoals, length);
+            rightGoals = Arrays.copyOf(rightGoals, length);
+         }
+         leftTeams[size] = left;
+         rightTeams[size] = right;
+         leftGoals[size] = leftPoints;
+         rightGoals[size] = rightPoints;
+         size++;
+      }
+
+      MatchIndex buildIndex(){
+         return new MatchIndex(teams, Arrays.copyOf(leftTeams, size), Arrays.copyOf(rightTeams, size),
+            Arrays.copyOf(leftGoals, size), Arrays.copyOf(rightGoals, size), determinePoints);
+      }
+   }
+
+   /**
+    * The matches of every team, for team histories and head-to-heads that cost as much as the matches they return.
+    * Each match appears once for each of its two teams, in compressed sparse row layout: the entries of team {@code t}
+    * are {@code [starts[t], starts[t + 1])}, in match order in one array and by opponent, then match order, in another,
+    * where the head-to-head of two teams is a range found by binary search. Both orders come out of counting passes over
+    * the matches, so the index is built in O(matches + teams).
+    */
+   public static class MatchIndex {
+
+      final TeamDictionary teams;
+      //match columns, indexed by match id
+      private final int[] leftTeams;
+      private final int[] rightTeams;
+      private final int[] leftGoals;
+      private final int[] rightGoals;
+      private final IntBinaryOperator determinePoints;
+
+      private final int[] starts;
+      //match ids of each team in match order
+      private final int[] history;
+      //match ids of each team by opponent, with the opponent of each entry alongside
+      private final int[] byOpponent;
+      private final int[] opponents;
+
+      MatchIndex(TeamDictionary teams, int[] leftTeams, int[] rightTeams, int[] leftGoals, int[] rightGoals, IntBinaryOperator determinePoints) {
+         this.teams = teams;
+         this.leftTeams = leftTeams;
+         this.rightTeams = rightTeams;
+         this.leftGoals = leftGoals;
+         this.rightGoals = rightGoals;
+         this.determinePoints = determinePoints;
+         int matches = leftTeams.length;
+         int entries = 2 * matches;
+         starts = new int[teams.size() + 1];
+         for(int match = 0; match < matches; match++){
+            starts[leftTeams[match] + 1]++;
+            starts[rightTeams[match] + 1]++;
+         }
+         for(int team = 0; team < teams.size(); team++){
+            starts[team + 1] += starts[team];
+         }
+         history = new int[entries];
+         int[] next = Arrays.copyOf(starts, teams.size());
+         for(int match = 0; match < matches; match++){
+            history[next[leftTeams[match]]++] = match;
+            history[next[rightTeams[match]]++] = match;
+         }
+         //walking the teams in order as opponents and dealing each of their matches out to the other team leaves the
+         //entries of every team sorted by opponent, then match
+         byOpponent = new int[entries];
+         opponents = new int[entries];
+         next = Arrays.copyOf(starts, teams.size());
+         for(int opponent = 0; opponent < teams.size(); opponent++){
+            for(int entry = starts[opponent]; entry < starts[opponent + 1]; entry++){
+               int match = history[entry];
+               int team = opponent == leftTeams[match] ? rightTeams[match] : leftTeams[match];
+               byOpponent[next[team]] = match;
+               opponents[next[team]++] = opponent;
+            }
+         }
+      }
+
+      public int matchCount(){
+         return leftTeams.length;
+      }
+
+      /**
+       * Ids of the matches of the team, in the order they were played, or none for an unknown team.
+       */
+      public int[] matchesOf(String team){
+         int id = idOf(team);
+         return -1 == id ? new int[0] : Arrays.copyOfRange(history, starts[id], starts[id + 1]);
+      }
+
+      /**
+       * Ids of the matches between the two teams, in the order they were played.
+       */
+      public int[] headToHead(String team, String opponent){
+         int id = idOf(team);
+         int opponentId = idOf(opponent);
+         if(-1 == id || -1 == opponentId){
+            return new int[0];
+         }
+         int from = lowerBound(starts[id], starts[id + 1], opponentId);
+         int to = lowerBound(from, starts[id + 1], opponentId + 1);
+         int[] matches = Arrays.copyOfRange(byOpponent, from, to);
+         if(id == opponentId){
+            //a team drawn against itself has both entries of each of those matches in the range
+            return Arrays.stream(matches).distinct().toArray();
+         }
+         return matches;
+      }
+
+      /**
+       * Played, won, drawn and lost, goals for and against, and points of the team over the given matches.
+       */
+      public String recordOf(String team, int[] matches){
+         int id = idOf(team);
+         long won = 0;
+         long drawn = 0;
+         long lost = 0;
+         long goalsFor = 0;
+         long goalsAgainst = 0;
+         long points = 0;
+         for(int match : matches){
+            boolean left = id == leftTeams[match];
+            int scored = left ? leftGoals[match] : rightGoals[match];
+            int conceded = left ? rightGoals[match] : leftGoals[match];
+            won += scored > conceded ? 1 : 0;
+            drawn += scored == conceded ? 1 : 0;
+            lost += scored < conceded ? 1 : 0;
+            goalsFor += scored;
+            goalsAgainst += conceded;
+            points += determinePoints.applyAsInt(scored, conceded);
+         }
+         return String.format("%s: %d played, %d won, %d drawn, %d lost, %d goals for, %d against, %d pts",
+            team, matches.length, won, drawn, lost, goalsFor, goalsAgainst, points);
+      }
+
+      /**
+       * The match as a row of the input, {@code <team> <score>, <team> <score>}.
+       */
+      public String formatMatch(int match){
+         return String.format("%s %d, %s %d", teams.nameOf(leftTeams[match]), leftGoals[match], teams.nameOf(rightTeams[match]), rightGoals[match]);
+      }
+
+      private int idOf(String team){
+         byte[] name = team.getBytes(StandardCharsets.UTF_8);
+         return teams.find(name, 0, name.length);
+      }
+
+      private int lowerBound(int from, int to, int opponent){
+         while(from < to){
+            int middle = (from + to) >>> 1;
+            if(opponents[middle] < opponent){
+               from = middle + 1;
+            } else {
+               to = middle;
+            }
+         }
+         return from;
+      }
+   }
+
+   /**
+    * Thread safe accumulator for many producers. Every producer thread writes into its own {@link ScoresAccumulator}
+    * shard, so producers never contend with each other; the shards are merged when a scoreboard is built. Each shard is
+    * guarded by its own (in practice uncontended) lock so a scoreboard can be built while producers are still adding.
+    * A producer that is done calls {@link #release()}, which folds its shard into the retired totals, so short lived
+    * producer threads do not leave a shard each behind.
+    */
+   static class ConcurrentScoresAccumulator implements MatchSink {
+
+      private final List<ScoresAccumulator> shards = new CopyOnWriteArrayList<>();
+      //totals of released shards, also the lock that keeps a snapshot from seeing a shard both retired and live
+      private final ScoresAccumulator retired = new ScoresAccumulator();
+      private final ThreadLocal<ScoresAccumulator> shard = ThreadLocal.withInitial(() -> {
+         ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+         shards.add(scoresAccumulator);
+         return scoresAccumulator;
+      });
+
+      void add(TeamAndScoresPair teamAndScoresPair){
+         ScoresAccumulator scoresAccumulator = shard.get();
+         synchronized (scoresAccumulator) {
+            scoresAccumulator.add(teamAndScoresPair);
+         }
+      }
+
+      @Override
+      public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+         ScoresAccumulator scoresAccumulator = shard.get();
+         synchronized (scoresAccumulator) {
+            scoresAccumulator.accept(bytes, leftOffset, leftLength, leftPoints, rightOffset, rightLength, rightPoints);
+         }
+      }
+
+      /**
+       * Hands the shard of the calling thread back once it adds no more, merging it into the retired totals and
+       * dropping it. A later add from the same thread starts a new shard.
+       */
+      void release(){
+         ScoresAccumulator scoresAccumulator = shard.get();
+         shard.remove();
+         synchronized (retired) {
+            synchronized (scoresAccumulator) {
+               retired.merge(scoresAccumulator);
+            }
+            shards.remove(scoresAccumulator);
+         }
+      }
+
+      /**
+       * Merges the shards into a single accumulator, a consistent snapshot of each shard at the time it was visited.
+       */
+      ScoresAccumulator snapshot(){
+         ScoresAccumulator merged = new ScoresAccumulator();
+         synchronized (retired) {
+            merged.merge(retired);
+            shards.forEach(scoresAccumulator -> {
+               synchronized (scoresAccumulator) {
+                  merged.merge(scoresAccumulator);
+               }
+            });
+         }
+         return merged;
+      }
+
+      int getShardCount(){
+         return shards.size();
+      }
+
+      Scoreboard buildScoreboard(){
+         return snapshot().buildScoreboard();
+      }
+   }
+
+   /**
+    * Follows an append-only results file. The totals and the number of bytes consumed are kept in a small checkpoint
+    * file, so each refresh (including the first one after a restart) only parses the complete lines appended since
+    * the last one. A trailing partial line is left for the next refresh. If the file shrank, is another file (rotated
+    * into place) or no longer ends its consumed bytes with the bytes it did (rewritten in place), it is taken to have
+    * been replaced and is scored again from the start.
+    * <pre>
+    * checkpoint  int magic, int version, long offset, UTF file key, long fingerprint of the bytes before the offset,
+    *             then the totals as written by ScoresAccumulator.writeTotals
+    * </pre>
+    */
+   static class TailedFile {
+
+      static final int MAGIC = 0x5350434B;
+      static final int VERSION = 2;
+      //consumed bytes fingerprinted to tell a rewritten file from the one the checkpoint was taken of
+      static final int FINGERPRINT_BYTES = 64;
+
+      private final Path csv;
+      private final Path checkpoint;
+      private ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      private long offset;
+      //identity of the file, as given by the file system; empty where it gives none
+      private String fileKey = "";
+      private long fingerprint = MatchFingerprints.fingerprint(new byte[0], 0, 0);
+      private long lastRefreshBytes;
+
+      TailedFile(Path csv, Path checkpoint) throws IOException {
+         this.csv = csv;
+         this.checkpoint = checkpoint;
+         if(Files.exists(checkpoint)){
+            load();
+         }
+      }
+
+      long getOffset(){
+         return offset;
+      }
+
+      long getLastRefreshBytes(){
+         return lastRefreshBytes;
+      }
+
+      /**
+       * Parses what was appended since the last refresh, saves the checkpoint and returns the updated scoreboard.
+       */
+      Scoreboard refresh() throws IOException {
+         try (FileChannel fileChannel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            String currentFileKey = fileKeyOf(csv);
+            if(size < offset || !currentFileKey.equals(fileKey) || fingerprint != fingerprintBefore(fileChannel, offset)){
+               scoresAccumulator = new ScoresAccumulator();
+               offset = 0;
+            }
+            long end = FileChunk.lastLineEnd(fileChannel, offset, size);
+            for(long from = offset; from < end; ){
+               long to = Math.min(end, from + MAX_CHUNK_SIZE);
+               if(to < end){
+                  to = FileChunk.nextLineStart(fileChannel, to, end);
+               }
+               new MatchLineParser().parse(fileChannel.map(FileChannel.MapMode.READ_ONLY, from, to - from), scoresAccumulator);
+               from = to;
+            }
+            lastRefreshBytes = end - offset;
+            offset = end;
+            fileKey = currentFileKey;
+            fingerprint = fingerprintBefore(fileChannel, offset);
+         }
+         if(0 < lastRefreshBytes || !Files.exists(checkpoint)){
+            save();
+         }
+         return scoresAccumulator.buildScoreboard();
+      }
+
+      private void load() throws IOException {
+         try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+            if(MAGIC != dataInputStream.readInt() || VERSION != dataInputStream.readInt()){
+               throw new IOException(String.format("Not a checkpoint <%s>", checkpoint));
+            }
+            offset = dataInputStream.readLong();
+            fileKey = dataInputStream.readUTF();
+            fingerprint = dataInputStream.readLong();
+            scoresAccumulator.readTotals(dataInputStream);
+         }
+      }
+
+      private static String fileKeyOf(Path path) throws IOException {
+         Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+         return null == fileKey ? "" : fileKey.toString();
+      }
+
+      /**
+       * Fingerprint of the last {@link #FINGERPRINT_BYTES} bytes before the offset.
+       */
+      private static long fingerprintBefore(FileChannel fileChannel, long offset) throws IOException {
+         ByteBuffer byteBuffer = ByteBuffer.allocate((int) Math.min(FINGERPRINT_BYTES, offset));
+         long from = offset - byteBuffer.capacity();
+         while(byteBuffer.hasRemaining()){
+            if(-1 == fileChannel.read(byteBuffer, from + byteBuffer.position())){
+               break;
+            }
+         }
+         return MatchFingerprints.fingerprint(byteBuffer.array(), 0, byteBuffer.position());
+      }
+
+      /**
+       * Writes the checkpoint next to its final location and moves it into place, so a crash never leaves half of one.
+       */
+      private void save() throws IOException {
+         Path partial = checkpoint.resolveSibling(checkpoint.getFileName() + ".partial");
+         try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            dataOutputStream.writeInt(MAGIC);
+            dataOutputStream.writeInt(VERSION);
+            dataOutputStream.writeLong(offset);
+            dataOutputStream.writeUTF(fileKey);
+            dataOutputStream.writeLong(fingerprint);
+            scoresAccumulator.writeTotals(dataOutputStream);
+         }
+         Files.move(partial, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+   }
+
+   /**
+    * Totals of one shard of the input, as written by a worker for a merge step elsewhere. Merging only adds up the points
+    * of each team by name, so partials merge in any order and grouping, into the same standings as one run over all of
+    * the shards, and a merge of partials can itself be written as a partial.
+    * <pre>
+    * partial  int magic, int version, long match count, then the totals as written by ScoresAccumulator.writeTotals
+    * </pre>
+    */
+   static class PartialScoreboard {
+
+      static final int MAGIC = 0x53505054;
+      static final int VERSION = 1;
+
+      /**
+       * Writes the totals next to {@code path} and moves them into place, so a reader never sees half a partial.
+       */
+      static void write(ScoresAccumulator scoresAccumulator, Path path) throws IOException {
+         Path partial = path.resolveSibling(path.getFileName() + ".partial");
+         try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            dataOutputStream.writeInt(MAGIC);
+            dataOutputStream.writeInt(VERSION);
+            dataOutputStream.writeLong(scoresAccumulator.getMatches());
+            scoresAccumulator.writeTotals(dataOutputStream);
+         }
+         Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      /**
+       * Adds the matches and totals of a partial to the accumulator and returns it.
+       */
+      static ScoresAccumulator read(Path path, ScoresAccumulator scoresAccumulator) throws IOException {
+         try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if(MAGIC != dataInputStream.readInt() || VERSION != dataInputStream.readInt()){
+               throw new IOException(String.format("Not a partial scoreboard <%s>", path));
+            }
+            scoresAccumulator.matches += dataInputStream.readLong();
+            scoresAccumulator.readTotals(dataInputStream);
+         }
+         return scoresAccumulator;
+      }
+   }
+
+   /**
+    * Binary, column oriented store of match results, so a season can be re-scored without parsing text again.
+    * All values are little endian:
+    * <pre>
+    * header      int magic, int version, long match count, int team count, int reserved,
+    *             long dictionary offset, padded to {@value #HEADER_SIZE} bytes
+    * columns     int[match count] left team id, right team id, left score, right score
+    * dictionary  int[team count + 1] name offsets, then the UTF-8 name bytes
+    * </pre>
+    * The dictionary comes last so the converter can stream the columns in a single pass over the CSV.
+    */
+   static class MatchStore {
+
+      static final int MAGIC = 0x53504E43;
+      static final int VERSION = 1;
+      static final int HEADER_SIZE = 64;
+      static final int COLUMNS = 4;
+
+      //rows mapped at a time while replaying, keeping each mapping of a column at 1GB
+      static final int ROWS_PER_MAPPING = 1 << 28;
+
+      /**
+       * Converts a CSV of match results into a store and returns the number of matches written.
+       */
+      static long convert(Path csv, Path store) throws IOException {
+         TeamDictionary teams = new TeamDictionary();
+         Path[] columnPaths = new Path[COLUMNS];
+         FileChannel[] columnChannels = new FileChannel[COLUMNS];
+         try {
+            for(int column = 0; column < COLUMNS; column++){
+               columnPaths[column] = Files.createTempFile(store.toAbsolutePath().getParent(), "span-column", ".tmp");
+               columnChannels[column] = FileChannel.open(columnPaths[column], StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            ColumnWriter columnWriter = new ColumnWriter(teams, columnChannels);
+            try (InputStream inputStream = Files.newInputStream(csv)) {
+               new MatchLineParser().parse(inputStream, columnWriter);
+            }
+            columnWriter.flush();
+
+            try (FileChannel storeChannel = FileChannel.open(store, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+               long dictionaryOffset = HEADER_SIZE + (long) COLUMNS * Integer.BYTES * columnWriter.matches;
+               ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+               header.putInt(MAGIC).putInt(VERSION).putLong(columnWriter.matches).putInt(teams.size()).putInt(0).putLong(dictionaryOffset);
+               header.clear();
+               writeFully(storeChannel, header);
+               for(FileChannel columnChannel : columnChannels){
+                  long size = columnChannel.size();
+                  for(long position = 0; position < size; ){
+                     position += columnChannel.transferTo(position, size - position, storeChannel);
+                  }
+               }
+               ByteBuffer offsets = ByteBuffer.allocate((teams.size() + 1) * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+               //offsetOf(size) is where the next name would start, so it closes the last name
+               for(int id = 0; id <= teams.size(); id++){
+                  offsets.putInt(teams.offsetOf(id));
+               }
+               offsets.flip();
+               writeFully(storeChannel, offsets);
+               writeFully(storeChannel, ByteBuffer.wrap(teams.nameBytes(), 0, teams.offsetOf(teams.size())));
+            }
+            return columnWriter.matches;
+         } finally {
+            for(int column = 0; column < COLUMNS; column++){
+               if(null != columnChannels[column]){
+                  columnChannels[column].close();
+               }
+               if(null != columnPaths[column]){
+                  Files.deleteIfExists(columnPaths[column]);
+               }
+            }
+         }
+      }
+
+      /**
+       * Feeds every match of the store to the accumulator, reading the columns through memory mappings.
+       */
+      static void replay(Path store, ScoresAccumulator scoresAccumulator) throws IOException {
+         try (FileChannel fileChannel = FileChannel.open(store, StandardOpenOption.READ)) {
+            ByteBuffer header = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if(MAGIC != header.getInt() || VERSION != header.getInt()){
+               throw new IOException(String.format("Not a match store <%s>", store));
+            }
+            long matches = header.getLong();
+            int teamCount = header.getInt();
+            header.getInt();
+            long dictionaryOffset = header.getLong();
+
+            //file team ids to the accumulator's own ids
+            int[] ids = new int[teamCount];
+            ByteBuffer dictionary = fileChannel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset, fileChannel.size() - dictionaryOffset).order(ByteOrder.LITTLE_ENDIAN);
+            int namesStart = (teamCount + 1) * Integer.BYTES;
+            byte[] names = new byte[dictionary.capacity() - namesStart];
+            dictionary.get(namesStart, names);
+            for(int id = 0; id < teamCount; id++){
+               int from = dictionary.getInt(id * Integer.BYTES);
+               int to = dictionary.getInt((id + 1) * Integer.BYTES);
+               ids[id] = scoresAccumulator.teams.intern(names, from, to - from);
+            }
+
+            for(long first = 0; first < matches; first += ROWS_PER_MAPPING){
+               int rows = (int) Math.min(ROWS_PER_MAPPING, matches - first);
+               IntBuffer[] columns = new IntBuffer[COLUMNS];
+               for(int column = 0; column < COLUMNS; column++){
+                  long offset = HEADER_SIZE + ((long) column * matches + first) * Integer.BYTES;
+                  columns[column] = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, (long) rows * Integer.BYTES)
+                     .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+               }
+               IntBuffer leftIds = columns[0];
+               IntBuffer rightIds = columns[1];
+               IntBuffer leftScores = columns[2];
+               IntBuffer rightScores = columns[3];
+               for(int row = 0; row < rows; row++){
+                  scoresAccumulator.addMatch(ids[leftIds.get(row)], ids[rightIds.get(row)], leftScores.get(row), rightScores.get(row));
+               }
+            }
+         }
+      }
+
+      private static void writeFully(FileChannel fileChannel, ByteBuffer byteBuffer) throws IOException {
+         while(byteBuffer.hasRemaining()){
+            fileChannel.write(byteBuffer);
+         }
+      }
+
+      /**
+       * Interns the teams of each parsed row and appends its ids and scores to the column files.
+       */
+      private static class ColumnWriter implements MatchSink {
+
+         private final TeamDictionary teams;
+         private final FileChannel[] channels;
+         private final ByteBuffer[] buffers = new ByteBuffer[COLUMNS];
+         long matches;
+
+         ColumnWriter(TeamDictionary teams, FileChannel[] channels) {
+            this.teams = teams;
+            this.channels = channels;
+            for(int column = 0; column < COLUMNS; column++){
+               buffers[column] = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            }
+         }
+
+         @Override
+         public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+            if(!buffers[0].hasRemaining()){
+               try {
+                  flush();
+               } catch (IOException e) {
+                  throw new RuntimeException(e);
+               }
+            }
+            buffers[0].putInt(teams.intern(bytes, leftOffset, leftLength));
+            buffers[1].putInt(teams.intern(bytes, rightOffset, rightLength));
+            buffers[2].putInt(leftPoints);
+            buffers[3].putInt(rightPoints);
+            matches++;
+         }
+
+         void flush() throws IOException {
+            for(int column = 0; column < COLUMNS; column++){
+               buffers[column].flip();
+               writeFully(channels[column], buffers[column]);
+               buffers[column].clear();
+            }
+         }
+      }
+   }
+
+   /**
+    * Long running server that keeps one set of {@link LiveStandings} warm. It listens on the loopback interface and
+    * serves every connection on its own virtual thread (on JVMs that have them, otherwise on a cached pool thread).
+    * The protocol is line based: a line holding a comma is a match result and gets no reply, anything else is a query
+    * answered by zero or more lines followed by an empty line.
+    * <pre>
+    * STANDINGS       all rows
+    * TOP n           the first n rows
+    * AT rank         the rows of all teams at that rank
+    * RANK team       the dense rank of the team, 0 if it has not played
+    * QUIT            closes the connection
+    * </pre>
+    * Malformed lines are answered with {@code ERROR <reason>}.
+    */
+   static class StandingsServer implements Runnable, Closeable {
+
+      private final LiveStandings liveStandings = new LiveStandings();
+      private final ServerSocket serverSocket;
+      private final ExecutorService executorService = newConnectionExecutor();
+
+      StandingsServer(int port) throws IOException {
+         this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+      }
+
+      InetSocketAddress getAddress(){
+         return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+      }
+
+      /**
+       * Accepts connections until the server is closed.
+       */
+      @Override
+      public void run(){
+         while(!serverSocket.isClosed()){
+            try {
+               Socket socket = serverSocket.accept();
+               executorService.submit(() -> serve(socket));
+            } catch (IOException e) {
+               if(!serverSocket.isClosed()){
+                  throw new RuntimeException(e);
+               }
+            }
+         }
+      }
+
+      @Override
+      public void close() throws IOException {
+         serverSocket.close();
+         executorService.shutdownNow();
+      }
+
+      private void serve(Socket socket){
+         try (Socket connection = socket;
+              InputStream inputStream = connection.getInputStream();
+              OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream())) {
+            byte[] buffer = new byte[MatchLineParser.DEFAULT_BUFFER_SIZE];
+            int end = 0;
+            int read;
+            while(-1 != (read = inputStream.read(buffer, end, buffer.length - end))){
+               end += read;
+               int lineStart = 0;
+               for(int i = 0; i < end; i++){
+                  if('\n' == buffer[i]){
+                     if(!handleLine(buffer, lineStart, i, outputStream)){
+                        return;
+                     }
+                     lineStart = i + 1;
+                  }
+               }
+               end -= lineStart;
+               System.arraycopy(buffer, lineStart, buffer, 0, end);
+               if(end == buffer.length){
+                  buffer = Arrays.copyOf(buffer, buffer.length * 2);
+               }
+               //replies are flushed once per read rather than per line
+               outputStream.flush();
+            }
+            handleLine(buffer, 0, end, outputStream);
+            outputStream.flush();
+         } catch (IOException e) {
+            //the client went away, nothing to clean up beyond the socket
+         }
+      }
+
+      /**
+       * Handles one line and returns false when the connection should be closed.
+       */
+      private boolean handleLine(byte[] bytes, int from, int to, OutputStream outputStream) throws IOException {
+         int lineFrom = MatchLineParser.trimStart(bytes, from, to);
+         int lineTo = MatchLineParser.trimEnd(bytes, lineFrom, to);
+         if(lineFrom == lineTo){
+            return true;
+         }
+         for(int i = lineFrom; i < lineTo; i++){
+            if(',' == bytes[i]){
+               try {
+                  synchronized (liveStandings) {
+                     MatchLineParser.parseLine(bytes, lineFrom, lineTo, liveStandings);
+                  }
+               } catch (RuntimeException e) {
+                  writeLine(outputStream, String.format("ERROR %s", e.getMessage()));
+               }
+               return true;
+            }
+         }
+         String line = new String(bytes, lineFrom, lineTo - lineFrom, StandardCharsets.UTF_8);
+         int space = line.indexOf(' ');
+         String command = -1 == space ? line : line.substring(0, space);
+         String argument = -1 == space ? "" : line.substring(space + 1).trim();
+         List<String> rows;
+         try {
+            synchronized (liveStandings) {
+               switch (command) {
+                  case "STANDINGS":
+                     rows = liveStandings.top(Integer.MAX_VALUE);
+                     break;
+                  case "TOP":
+                     rows = liveStandings.top(Integer.parseInt(argument));
+                     break;
+                  case "AT":
+                     rows = liveStandings.teamsAtRank(Integer.parseInt(argument));
+                     break;
+                  case "RANK":
+                     rows = Collections.singletonList(String.valueOf(liveStandings.rankOf(argument)));
+                     break;
+                  case "QUIT":
+                     return false;
+                  default:
+                     writeLine(outputStream, String.format("ERROR Unknown command <%s>", command));
+                     return true;
+               }
+            }
+         } catch (NumberFormatException e) {
+            writeLine(outputStream, String.format("ERROR Expecting a number, got <%s>", argument));
+            return true;
+         }
+         for(String row : rows){
+            writeLine(outputStream, row);
+         }
+         writeLine(outputStream, "");
+         return true;
+      }
+
+      private static void writeLine(OutputStream outputStream, String line) throws IOException {
+         outputStream.write(line.getBytes(StandardCharsets.UTF_8));
+         outputStream.write('\n');
+      }
+
+      /**
+       * A virtual thread per task where the runtime supports it (Java 21+), looked up reflectively so the exercise
+       * still builds and runs on older JVMs, where a cached platform thread pool is used instead.
+       */
+      static ExecutorService newConnectionExecutor(){
+         try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+         } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+         }
+      }
+   }
+
+   /**
+    * Accumulator that keeps the standings ordered as matches arrive, so the dashboard queries never rebuild the ranking.
+    * Teams live in a treap ordered by points (descending) then name, using the team ids as node indexes. Each node also
+    * tracks its subtree size and the number of distinct point totals in it, so positions and dense ranks are found in
+    * O(log n) and the first N rows are walked in O(log n + N). Ties share a rank and are listed alphabetically, exactly
+    * as in {@link Scoreboard#prepareScoreboard()}.
+    */
+   static class LiveStandings extends ScoresAccumulator {
+
+      private static final int NIL = -1;
+
+      private int[] left = new int[16];
+      private int[] right = new int[16];
+      private int[] size = new int[16];
+      private int[] distinct = new int[16];
+      //ids of the first and last team, in standings order, of each subtree
+      private int[] first = new int[16];
+      private int[] last = new int[16];
+      private int root = NIL;
+      //teams [0, inserted) are in the tree
+      private int inserted;
+
+      private int splitLeft;
+      private int splitRight;
+      private int[] stack = new int[64];
+
+      @Override
+      void addPoints(int id, long amount){
+         if(id < inserted){
+            if(0 == amount){
+               return;
+            }
+            root = remove(root, id);
+            super.addPoints(id, amount);
+            root = insert(root, id);
+            return;
+         }
+         super.addPoints(id, amount);
+         while(inserted <= id){
+            int newId = inserted++;
+            ensureNodeCapacity(newId);
+            left[newId] = NIL;
+            right[newId] = NIL;
+            pull(newId);
+            root = insert(root, newId);
+         }
+      }
+
+      int size(){
+         return inserted;
+      }
+
+      /**
+       * The first {@code n} rows of the standings.
+       */
+      List<String> top(int n){
+         List<String> rows = new ArrayList<>(Math.min(n, inserted));
+         int[] rank = {0};
+         long[] previous = {0};
+         visitFrom(0, id -> {
+            if(rows.size() == n){
+               return false;
+            }
+            if(0 == rank[0] || previous[0] != points[id]){
+               rank[0]++;
+               previous[0] = points[id];
+            }
+            rows.add(Scoreboard.formatRow(rank[0], teams.nameOf(id), points[id]));
+            return true;
+         });
+         return rows;
+      }
+
+      /**
+       * Dense rank of the team, or 0 when the team has not played.
+       */
+      int rankOf(String team){
+         byte[] name = team.getBytes(StandardCharsets.UTF_8);
+         int id = teams.find(name, 0, name.length);
+         if(NIL == id || id >= inserted){
+            return 0;
+         }
+         long score = points[id];
+         Distinct prefix = new Distinct();
+         int t = root;
+         while(NIL != t){
+            if(points[t] > score){
+               prefix.append(left[t]);
+               prefix.appendNode(t);
+               t = right[t];
+            } else {
+               t = left[t];
+            }
+         }
+         return prefix.count + 1;
+      }
+
+      /**
+       * The rows of all teams sharing the given dense rank, alphabetically.
+       */
+      List<String> teamsAtRank(int rank){
+         List<String> rows = new ArrayList<>();
+         int position = firstPositionOfRank(rank);
+         if(NIL == position){
+            return rows;
+         }
+         long[] score = {0};
+         visitFrom(position, id -> {
+            if(!rows.isEmpty() && score[0] != points[id]){
+               return false;
+            }
+            score[0] = points[id];
+            rows.add(Scoreboard.formatRow(rank, teams.nameOf(id), points[id]));
+            return true;
+         });
+         return rows;
+      }
+
+      private int firstPositionOfRank(int rank){
+         if(1 > rank){
+            return NIL;
+         }
+         Distinct prefix = new Distinct();
+         int position = 0;
+         int t = root;
+         while(NIL != t){
+            int l = left[t];
+            Distinct withLeft = prefix.copy().append(l);
+            if(withLeft.count >= rank){
+               t = l;
+               continue;
+            }
+            Distinct withNode = withLeft.appendNode(t);
+            if(withNode.count == rank){
+               return position + sizeOf(l);
+            }
+            prefix = withNode;
+            position += sizeOf(l) + 1;
+            t = right[t];
+         }
+         return NIL;
+      }
+
+      /**
+       * In order walk starting at the given position, until the visitor returns false.
+       */
+      private void visitFrom(int position, IntPredicate visitor){
+         int depth = 0;
+         int t = root;
+         while(NIL != t){
+            int leftSize = sizeOf(left[t]);
+            if(position <= leftSize){
+               depth = push(depth, t);
+               if(position == leftSize){
+                  break;
+               }
+               t = left[t];
+            } else {
+               position -= leftSize + 1;
+               t = right[t];
+            }
+         }
+         while(0 < depth){
+            int n = stack[--depth];
+            if(!visitor.test(n)){
+               return;
+            }
+            for(t = right[n]; NIL != t; t = left[t]){
+               depth = push(depth, t);
+            }
+         }
+      }
+
+      private int push(int depth, int id){
+         if(depth == stack.length){
+            stack = Arrays.copyOf(stack, depth * 2);
+         }
+         stack[depth] = id;
+         return depth + 1;
+      }
+
+      /**
+       * Counts distinct point totals over a prefix of the standings, built up one subtree or node at a time.
+       */
+      private class Distinct {
+         int count;
+         boolean hasLast;
+         long lastPoints;
+
+         Distinct append(int subtree){
+            if(NIL != subtree){
+               count += distinct[subtree] - (hasLast && lastPoints == points[first[subtree]] ? 1 : 0);
+               hasLast = true;
+               lastPoints = points[last[subtree]];
+            }
+            return this;
+         }
+
+         Distinct appendNode(int id){
+            count += hasLast && lastPoints == points[id] ? 0 : 1;
+            hasLast = true;
+            lastPoints = points[id];
+            return this;
+         }
+
+         Distinct copy(){
+            Distinct copy = new Distinct();
+            copy.count = count;
+            copy.hasLast = hasLast;
+            copy.lastPoints = lastPoints;
+            return copy;
+         }
+      }
+
+      private boolean before(int a, int b){
+         if(points[a] != points[b]){
+            return points[a] > points[b];
+         }
+         int byName = teams.compare(a, b);
+         return 0 != byName ? 0 > byName : a < b;
+      }
+
+      private int insert(int t, int id){
+         if(NIL == t){
+            return id;
+         }
+         if(priority(id) > priority(t)){
+            split(t, id);
+            left[id] = splitLeft;
+            right[id] = splitRight;
+            pull(id);
+            return id;
+         }
+         if(before(id, t)){
+            left[t] = insert(left[t], id);
+         } else {
+            right[t] = insert(right[t], id);
+         }
+         pull(t);
+         return t;
+      }
+
+      private int remove(int t, int id){
+         if(t == id){
+            int merged = merge(left[t], right[t]);
+            left[t] = NIL;
+            right[t] = NIL;
+            pull(t);
+            return merged;
+         }
+         if(before(id, t)){
+            left[t] = remove(left[t], id);
+         } else {
+            right[t] = remove(right[t], id);
+         }
+         pull(t);
+         return t;
+      }
 
-   static final Function<String, String> normalise = line -> {
-      return line.trim();
-   };
+      /**
+       * Splits the subtree into the teams ordered before {@code id} (splitLeft) and the rest (splitRight).
+       */
+      private void split(int t, int id){
+         if(NIL == t){
+            splitLeft = NIL;
+            splitRight = NIL;
+            return;
+         }
+         if(before(t, id)){
+            split(right[t], id);
+            right[t] = splitLeft;
+            pull(t);
+            splitLeft = t;
+         } else {
+            split(left[t], id);
+            left[t] = splitRight;
+            pull(t);
+            splitRight = t;
+         }
+      }
 
-   static final Function<String, TeamAndScoresPair> extractTeamAndScores = line -> {
-      String[] segments = line.split(",");
-      if(2 != segments.length){
-         throw new RuntimeException();
+      private int merge(int a, int b){
+         if(NIL == a){
+            return b;
+         }
+         if(NIL == b){
+            return a;
+         }
+         if(priority(a) > priority(b)){
+            right[a] = merge(right[a], b);
+            pull(a);
+            return a;
+         }
+         left[b] = merge(a, left[b]);
+         pull(b);
+         return b;
       }
-      TeamAndScore left = TeamAndScore.parseFrom(normalise.apply(segments[0]));
-      TeamAndScore right = TeamAndScore.parseFrom(normalise.apply(segments[1]));
-      return new TeamAndScoresPair(left, right);
-   };
 
-   public static void main(String[] args){
-      SpanProblem spanProblem = new SpanProblem();
-      if(hasArgs.test(args)){
-         System.out.println(String.format("Not expecting any args - got <%s>", String.join(" ", args)));
-         return;
+      private void pull(int t){
+         int l = left[t];
+         int r = right[t];
+         size[t] = 1 + sizeOf(l) + sizeOf(r);
+         first[t] = NIL == l ? t : first[l];
+         last[t] = NIL == r ? t : last[r];
+         int count = 1;
+         if(NIL != l){
+            count += distinct[l] - (points[last[l]] == points[t] ? 1 : 0);
+         }
+         if(NIL != r){
+            count += distinct[r] - (points[first[r]] == points[t] ? 1 : 0);
+         }
+         distinct[t] = count;
       }
-      spanProblem.handleStdIn();
-   }
 
-   private void handleStdIn(){
-      Set<ScanResult> scanResults = this.handleInputStream(System.in);
+      private int sizeOf(int t){
+         return NIL == t ? 0 : size[t];
+      }
 
-      scanResults.iterator().next().asSuccess().getScoreboard().printScoreboard();
+      private void ensureNodeCapacity(int id){
+         if(id < left.length){
+            return;
+         }
+         int capacity = Math.max(id + 1, left.length * 2);
+         left = Arrays.copyOf(left, capacity);
+         right = Arrays.copyOf(right, capacity);
+         size = Arrays.copyOf(size, capacity);
+         distinct = Arrays.copyOf(distinct, capacity);
+         first = Arrays.copyOf(first, capacity);
+         last = Arrays.copyOf(last, capacity);
+      }
+
+      private static int priority(int id){
+         //a fixed mix of the id serves as the random heap priority
+         int h = id * 0x9E3779B9;
+         h ^= h >>> 15;
+         h *= 0x85EBCA6B;
+         return h ^ (h >>> 13);
+      }
    }
 
-   public Set<ScanResult> handleInputStream(InputStream inputStream){
-      Set<ScanResult> scanResults = newResultsSet.get();
-      Scanner scanner = new Scanner(inputStream);
-      AtomicInteger counter = new AtomicInteger(0);
+   /**
+    * Standings over a sliding window of the most recent matches, kept up to date as the window slides rather than rebuilt
+    * for each window. Every match carries a key: the leading column of the row when the window is keyed (a round number,
+    * an epoch timestamp, or an ISO date which counts in days) or else its position in the input. The window holds the
+    * matches whose key is within {@code span} of the latest key, so a span of 5 is the last 5 rounds, the last 30 days or
+    * the last 5 matches. The matches in the window sit in a ring of primitive arrays, oldest first; a match entering adds
+    * its points to a {@link LiveStandings} and a match leaving subtracts them again, so a slide costs
+    * O((new + expired) log teams) whatever the size of the window. Teams whose matches have all left the window stay in
+    * the standings with the points they have left. Keys must not decrease.
+    */
+   static class WindowedStandings implements ColumnSink {
 
-      ScoresAccumulator scoresAccumulator = new ScoresAccumulator();
+      private final LiveStandings standings = new LiveStandings();
+      private final long span;
+      private final boolean keyed;
 
-      while(scanner.hasNext()){
-         String line = scanner.nextLine();
-         if(isValidRow.apply(line)){
-           // System.out.println(String.format("%d: %s", counter.incrementAndGet(), line));
-            TeamAndScoresPair teamAndScoresPair = extractTeamAndScores.apply(line);
-            scoresAccumulator.add(teamAndScoresPair);
+      //ring of the matches in the window, sized to a power of two
+      private long[] keys = new long[16];
+      private int[] leftIds = new int[16];
+      private int[] rightIds = new int[16];
+      private int[] leftAwarded = new int[16];
+      private int[] rightAwarded = new int[16];
+      private int head;
+      private int count;
+
+      private long columnKey;
+      private long latest = Long.MIN_VALUE;
+      private long ingested;
+
+      WindowedStandings(long span, boolean keyed) {
+         if(1 > span){
+            throw new IllegalArgumentException(String.format("Window span <%d> must be positive", span));
+         }
+         this.span = span;
+         this.keyed = keyed;
+      }
+
+      @Override
+      public void columns(byte[] bytes, int[] columns) {
+         columnKey = parseKey(bytes, columns[0], columns[1]);
+      }
+
+      @Override
+      public void accept(byte[] bytes, int leftOffset, int leftLength, int leftPoints, int rightOffset, int rightLength, int rightPoints) {
+         long key = keyed ? columnKey : ingested;
+         if(key < latest){
+            throw new RuntimeException(String.format("Window key <%d> comes after <%d>", key, latest));
+         }
+         latest = key;
+         ingested++;
+         int left = standings.teams.intern(bytes, leftOffset, leftLength);
+         int right = standings.teams.intern(bytes, rightOffset, rightLength);
+         int leftAmount = standings.determinePoints.applyAsInt(leftPoints, rightPoints);
+         int rightAmount = standings.determinePoints.applyAsInt(rightPoints, leftPoints);
+         standings.addPoints(left, leftAmount);
+         standings.addPoints(right, rightAmount);
+         append(key, left, right, leftAmount, rightAmount);
+         expire();
+      }
+
+      /**
+       * The standings of the current window, updated in place as matches arrive.
+       */
+      LiveStandings getStandings(){
+         return standings;
+      }
+
+      /**
+       * Number of matches in the current window.
+       */
+      int getWindowMatches(){
+         return count;
+      }
+
+      private void append(long key, int left, int right, int leftAmount, int rightAmount){
+         if(count == keys.length){
+            grow();
+         }
+         int tail = (head + count) & (keys.length - 1);
+         keys[tail] = key;
+         leftIds[tail] = left;
+         rightIds[tail] = right;
+         leftAwarded[tail] = leftAmount;
+         rightAwarded[tail] = rightAmount;
+         count++;
+      }
+
+      private void expire(){
+         //compared as a difference so a span of Long.MAX_VALUE does not overflow
+         while(0 < count && latest - keys[head] >= span){
+            standings.addPoints(leftIds[head], -leftAwarded[head]);
+            standings.addPoints(rightIds[head], -rightAwarded[head]);
+            head = (head + 1) & (keys.length - 1);
+            count--;
+         }
+      }
+
+      private void grow(){
+         int capacity = keys.length * 2;
+         keys = unwrap(keys, capacity);
+         leftIds = unwrap(leftIds, capacity);
+         rightIds = unwrap(rightIds, capacity);
+         leftAwarded = unwrap(leftAwarded, capacity);
+         rightAwarded = unwrap(rightAwarded, capacity);
+         head = 0;
+      }
+
+      private long[] unwrap(long[] ring, int capacity){
+         long[] grown = new long[capacity];
+         int firstPart = ring.length - head;
+         System.arraycopy(ring, head, grown, 0, firstPart);
+         System.arraycopy(ring, 0, grown, firstPart, head);
+         return grown;
+      }
+
+      private int[] unwrap(int[] ring, int capacity){
+         int[] grown = new int[capacity];
+         int firstPart = ring.length - head;
+         System.arraycopy(ring, head, grown, 0, firstPart);
+         System.arraycopy(ring, 0, grown, firstPart, head);
+         return grown;
+      }
+
+      /**
+       * A key is a non negative integer or an ISO date, taken as its epoch day.
+       */
+      static long parseKey(byte[] bytes, int offset, int length){
+         long key = 0;
+         boolean digits = 0 < length && length < 19;
+         for(int i = offset; digits && i < offset + length; i++){
+            digits = '0' <= bytes[i] && bytes[i] <= '9';
+            key = key * 10 + bytes[i] - '0';
+         }
+         if(digits){
+            return key;
+         }
+         String text = new String(bytes, offset, length, StandardCharsets.UTF_8);
+         try {
+            return LocalDate.parse(text).toEpochDay();
+         } catch (DateTimeParseException e) {
+            throw new RuntimeException(String.format("Malformed window key <%s>", text), e);
          }
       }
-      Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
-      scanResults.add(new ScanResult.Success(scoreboard));
-      return scanResults;
    }
 
-   static class TeamAndScoresPair {
-      final TeamAndScore left;
-      final TeamAndScore right;
+   /**
+    * Team names by dense id, as UTF-8 bytes, wherever they are kept.
+    */
+   interface TeamNames {
+      int size();
 
-      TeamAndScoresPair(TeamAndScore left, TeamAndScore right) {
-         this.left = left;
-         this.right = right;
+      int lengthOf(int id);
+
+      String nameOf(int id);
+
+      /**
+       * The eight bytes of the name starting at {@code depth}, big endian and zero padded past its end, so unsigned
+       * order of prefixes never contradicts the order of names.
+       */
+      long prefixOf(int id, int depth);
+
+      /**
+       * Orders two names by their bytes from {@code depth} on, compared as unsigned values.
+       */
+      int compareFrom(int a, int b, int depth);
+
+      /**
+       * Copies {@code length} bytes of the name, starting at byte {@code from}.
+       */
+      void copyName(int id, int from, byte[] destination, int offset, int length);
+   }
+
+   /**
+    * Maps each distinct team name to a dense id, starting at 0, through an open addressing table keyed on the UTF-8
+    * name bytes. Names are copied once into a shared byte pool and ids are never reassigned, so a scoreboard can keep
+    * reading the dictionary while the accumulator that owns it interns further teams.
+    */
+   static class TeamDictionary implements TeamNames {
+
+      private static final int EMPTY = -1;
+
+      //slot -> id, sized to a power of two and kept at most half full
+      private int[] slots = newSlots(16);
+      private int[] hashes = new int[8];
+      //id -> start of the name in nameBytes, with one trailing entry marking the end of the last name
+      private int[] nameOffsets = new int[9];
+      private byte[] nameBytes = new byte[256];
+      private String[] names = new String[8];
+      private int size;
+
+      @Override
+      public int size() {
+         return size;
+      }
+
+      int intern(byte[] bytes) {
+         return intern(bytes, 0, bytes.length);
+      }
+
+      int intern(byte[] bytes, int offset, int length) {
+         return intern(bytes, offset, length, hash(bytes, offset, length));
+      }
+
+      /**
+       * Interns a name whose {@link #hash} is already known.
+       */
+      int intern(byte[] bytes, int offset, int length, int hash) {
+         int mask = slots.length - 1;
+         int slot = hash & mask;
+         int id;
+         while(EMPTY != (id = slots[slot])){
+            if(hashes[id] == hash && Arrays.equals(nameBytes, nameOffsets[id], nameOffsets[id + 1], bytes, offset, offset + length)){
+               return id;
+            }
+            slot = (slot + 1) & mask;
+         }
+         id = size++;
+         slots[slot] = id;
+         append(id, hash, bytes, offset, length);
+         if(size * 2 > slots.length){
+            rehash(slots.length * 2);
+         }
+         return id;
+      }
+
+      /**
+       * Returns the id of the name or -1 if it has not been interned.
+       */
+      int find(byte[] bytes, int offset, int length) {
+         int hash = hash(bytes, offset, length);
+         int mask = slots.length - 1;
+         int slot = hash & mask;
+         int id;
+         while(EMPTY != (id = slots[slot])){
+            if(hashes[id] == hash && Arrays.equals(nameBytes, nameOffsets[id], nameOffsets[id + 1], bytes, offset, offset + length)){
+               return id;
+            }
+            slot = (slot + 1) & mask;
+         }
+         return EMPTY;
+      }
+
+      @Override
+      public String nameOf(int id) {
+         String name = names[id];
+         if(null == name){
+            name = new String(nameBytes, nameOffsets[id], lengthOf(id), StandardCharsets.UTF_8);
+            names[id] = name;
+         }
+         return name;
+      }
+
+      byte[] nameBytes() {
+         return nameBytes;
+      }
+
+      int offsetOf(int id) {
+         return nameOffsets[id];
+      }
+
+      @Override
+      public int lengthOf(int id) {
+         return nameOffsets[id + 1] - nameOffsets[id];
+      }
+
+      @Override
+      public long prefixOf(int id, int depth) {
+         int offset = nameOffsets[id] + depth;
+         int length = Math.min(Long.BYTES, nameOffsets[id + 1] - offset);
+         long prefix = 0;
+         for(int i = 0; i < length; i++){
+            prefix |= (nameBytes[offset + i] & 0xFFL) << (56 - 8 * i);
+         }
+         return prefix;
+      }
+
+      @Override
+      public int compareFrom(int a, int b, int depth) {
+         return Arrays.compareUnsigned(nameBytes, nameOffsets[a] + depth, nameOffsets[a + 1], nameBytes, nameOffsets[b] + depth, nameOffsets[b + 1]);
+      }
+
+      @Override
+      public void copyName(int id, int from, byte[] destination, int offset, int length) {
+         System.arraycopy(nameBytes, nameOffsets[id] + from, destination, offset, length);
+      }
+
+      /**
+       * Orders two teams by their names, comparing the UTF-8 bytes as unsigned values.
+       */
+      int compare(int a, int b) {
+         return Arrays.compareUnsigned(nameBytes, nameOffsets[a], nameOffsets[a + 1], nameBytes, nameOffsets[b], nameOffsets[b + 1]);
+      }
+
+      private void append(int id, int hash, byte[] bytes, int offset, int length) {
+         if(id == hashes.length){
+            int capacity = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            names = Arrays.copyOf(names, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+         }
+         int start = nameOffsets[id];
+         if(start + length > nameBytes.length){
+            nameBytes = Arrays.copyOf(nameBytes, Math.max(start + length, nameBytes.length * 2));
+         }
+         System.arraycopy(bytes, offset, nameBytes, start, length);
+         nameOffsets[id + 1] = start + length;
+         hashes[id] = hash;
+      }
+
+      private void rehash(int capacity) {
+         int[] rehashed = newSlots(capacity);
+         int mask = capacity - 1;
+         for(int id = 0; id < size; id++){
+            int slot = hashes[id] & mask;
+            while(EMPTY != rehashed[slot]){
+               slot = (slot + 1) & mask;
+            }
+            rehashed[slot] = id;
+         }
+         slots = rehashed;
+      }
+
+      private static int[] newSlots(int capacity) {
+         int[] slots = new int[capacity];
+         Arrays.fill(slots, EMPTY);
+         return slots;
+      }
+
+      static int hash(byte[] bytes, int offset, int length) {
+         int hash = 0x811C9DC5;
+         for(int i = offset; i < offset + length; i++){
+            hash = (hash ^ bytes[i]) * 0x01000193;
+         }
+         //spread the high bits down as the table only looks at the low ones
+         return hash ^ (hash >>> 16);
       }
    }
 
-   static class Scoreboard {
+   /**
+    * Memory outside the Java heap, addressed by a long and allocated in fixed size pages: direct buffers, or pages of a
+    * temporary file mapped read-write when a spill directory is given, so the table can outgrow physical memory and
+    * the page cache decides what stays resident. Every mapped page is a mapping of its own and a process only gets so
+    * many (vm.max_map_count, 65530 by default on Linux), so spilled pages are far larger than direct ones. Nothing is
+    * ever freed short of {@link #close()}; an int or long is never split across pages as long as it is stored at a
+    * multiple of its size.
+    */
+   static class OffHeapMemory implements Closeable {
 
-      final Map<Team, AtomicInteger> scores = new HashMap<>();
+      static final int DEFAULT_PAGE_SIZE = 1 << 20;
+      //well under the 2GB limit of a MappedByteBuffer, and a file grows sparsely, a page at a time
+      static final int DEFAULT_SPILL_PAGE_SIZE = 1 << 30;
 
-      Scoreboard(Map<Team, AtomicInteger> scores) {
-         this.scores.putAll(scores);
+      private final FileChannel fileChannel;
+      private final int pageShift;
+      private final long pageMask;
+      private ByteBuffer[] pages = new ByteBuffer[8];
+      private int pageCount;
+      //next free address of allocate
+      private long top;
+
+      OffHeapMemory(Path spillDirectory, int pageSize) {
+         if(Long.BYTES > pageSize || 0 != (pageSize & (pageSize - 1))){
+            throw new IllegalArgumentException(String.format("Page size <%d> is not a power of two of at least 8", pageSize));
+         }
+         this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+         this.pageMask = pageSize - 1;
+         try {
+            this.fileChannel = null == spillDirectory ? null : FileChannel.open(Files.createTempFile(spillDirectory, "span-", ".spill"),
+               StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+         } catch (IOException e) {
+            throw new RuntimeException(e);
+         }
       }
 
-      void printScoreboard() {
-         List<String> scoreboardRows = prepareScoreboard();
-         scoreboardRows.forEach(scoreboardRow -> System.out.println(scoreboardRow));
+      static int defaultPageSize(Path spillDirectory){
+         return null == spillDirectory ? DEFAULT_PAGE_SIZE : DEFAULT_SPILL_PAGE_SIZE;
       }
 
-      List<String> prepareScoreboard(){
-         List<String> scoreboardRows = new ArrayList<>();
-         Map<Integer, List<Team>> scoresToTeams = new HashMap<>();
-         scores.keySet().forEach(team -> {
-            int score = scores.get(team).get();
-            //System.out.println(String.format("team <%s> score <%d>", team.name, score));
-            if(!scoresToTeams.containsKey(score)){
-               scoresToTeams.put(score, new ArrayList<>());
-            }
-            scoresToTeams.get(score).add(team);
-         });
+      int getPageSize(){
+         return 1 << pageShift;
+      }
+
+      /**
+       * Makes {@code [0, bytes)} addressable; new memory reads as zeros.
+       */
+      void ensureCapacity(long bytes){
+         while((long) pageCount << pageShift < bytes){
+            if(pageCount == pages.length){
+               pages = Arrays.copyOf(pages, pageCount * 2);
+            }
+            pages[pageCount] = newPage((long) pageCount << pageShift);
+            pageCount++;
+         }
+      }
+
+      /**
+       * Reserves {@code bytes} past the last allocation, rounded up to a multiple of 8 and moved to the next page if they
+       * would straddle a page, and returns their address.
+       */
+      long allocate(int bytes){
+         int size = (bytes + Long.BYTES - 1) & -Long.BYTES;
+         if(size > getPageSize()){
+            throw new RuntimeException(String.format("Allocation of <%d> bytes does not fit a page of <%d>", bytes, getPageSize()));
+         }
+         if((top & pageMask) + size > getPageSize()){
+            top = (top | pageMask) + 1;
+         }
+         long address = top;
+         top += size;
+         ensureCapacity(top);
+         return address;
+      }
 
-         List<Integer> orderedScores = new ArrayList(scoresToTeams.keySet());
-         Collections.sort(orderedScores, Collections.reverseOrder());
+      int getInt(long address){
+         return pages[(int) (address >>> pageShift)].getInt((int) (address & pageMask));
+      }
 
-         AtomicInteger rank = new AtomicInteger(0);
+      void putInt(long address, int value){
+         pages[(int) (address >>> pageShift)].putInt((int) (address & pageMask), value);
+      }
 
-         orderedScores.forEach(score -> {
-            List<String> teamsOfRank = new ArrayList<>();
-            scoresToTeams.get(score).forEach(team -> teamsOfRank.add(team.name));
-            Collections.sort(teamsOfRank);
+      long getLong(long address){
+         return pages[(int) (address >>> pageShift)].getLong((int) (address & pageMask));
+      }
 
-            rank.incrementAndGet();
+      void putLong(long address, long value){
+         pages[(int) (address >>> pageShift)].putLong((int) (address & pageMask), value);
+      }
 
-            teamsOfRank.forEach(teamOfRank -> {
-               scoreboardRows.add(String.format("%d. %s, %d pts", rank.get(), teamOfRank, score));
-            });
-         });
-         return scoreboardRows;
+      byte getByte(long address){
+         return pages[(int) (address >>> pageShift)].get((int) (address & pageMask));
+      }
+
+      /**
+       * Copies bytes of a single allocation into {@code destination}.
+       */
+      void get(long address, byte[] destination, int offset, int length){
+         pages[(int) (address >>> pageShift)].get((int) (address & pageMask), destination, offset, length);
+      }
+
+      /**
+       * Copies bytes into a single allocation.
+       */
+      void put(long address, byte[] source, int offset, int length){
+         pages[(int) (address >>> pageShift)].put((int) (address & pageMask), source, offset, length);
+      }
+
+      /**
+       * Releases the pages; a spill file is deleted, direct pages go back once the buffers are collected.
+       */
+      @Override
+      public void close() {
+         Arrays.fill(pages, null);
+         pageCount = 0;
+         if(null != fileChannel){
+            try {
+               fileChannel.close();
+            } catch (IOException e) {
+               throw new RuntimeException(e);
+            }
+         }
+      }
+
+      private ByteBuffer newPage(long position){
+         if(null == fileChannel){
+            return ByteBuffer.allocateDirect(getPageSize()).order(ByteOrder.nativeOrder());
+         }
+         try {
+            //mapping past the end grows the file, sparsely on most file systems
+            return fileChannel.map(FileChannel.MapMode.READ_WRITE, position, getPageSize()).order(ByteOrder.nativeOrder());
+         } catch (IOException e) {
+            throw new RuntimeException(e);
+         }
       }
    }
 
-   static class ScoresAccumulator {
+   /**
+    * Counterpart of {@link TeamDictionary} and the points array of {@link ScoresAccumulator} kept in
+    * {@link OffHeapMemory}, so the heap holds a handful of page references however many teams there are. Each team is an
+    * entry of its points, hash, name length and name bytes; an id maps to the address of its entry and an open
+    * addressed table of ids, kept at most half full, finds the entry of a name.
+    */
+   static class OffHeapTeamTable implements TeamNames, Closeable {
 
-      Set<TeamAndScoresPair> teamAndScoresPairSet = new HashSet<>();
-      Map<Team, AtomicInteger> scores = new HashMap<>();
+      //points, hash and length ahead of the name bytes
+      private static final int ENTRY_HEADER = 16;
 
-      BiFunction<Integer, Integer, Integer> determinePoints = (a, b) -> {
-         if(a == b){
-            return 1;
+      private final Path spillDirectory;
+      private final int pageSize;
+      private final OffHeapMemory entries;
+      //id -> address of its entry
+      private final OffHeapMemory addresses;
+      //slot -> id + 1, with 0 marking an empty slot
+      private OffHeapMemory slots;
+      private int capacity;
+      private int size;
+
+      OffHeapTeamTable(Path spillDirectory, int pageSize) {
+         this.spillDirectory = spillDirectory;
+         this.pageSize = pageSize;
+         this.entries = new OffHeapMemory(spillDirectory, pageSize);
+         this.addresses = new OffHeapMemory(spillDirectory, pageSize);
+         this.capacity = 16;
+         this.slots = newSlots(capacity);
+      }
+
+      @Override
+      public int size() {
+         return size;
+      }
+
+      int intern(byte[] bytes, int offset, int length) {
+         int hash = TeamDictionary.hash(bytes, offset, length);
+         int mask = capacity - 1;
+         int slot = hash & mask;
+         int id;
+         while(0 != (id = slots.getInt(4L * slot))){
+            if(matches(id - 1, hash, bytes, offset, length)){
+               return id - 1;
+            }
+            slot = (slot + 1) & mask;
          }
-         if(a > b){
-            return 3;
+         //appended first, so a name that does not fit leaves the table as it was
+         id = size;
+         append(id, hash, bytes, offset, length);
+         size++;
+         slots.putInt(4L * slot, id + 1);
+         if(size * 2L > capacity){
+            rehash(capacity * 2);
          }
-         return 0;
-      };
+         return id;
+      }
 
-      Function<TeamAndScoresPair, Integer> getScoreForLeft = teamAndScoresPair -> determinePoints.apply(teamAndScoresPair.left.score.points, teamAndScoresPair.right.score.points);
-      Function<TeamAndScoresPair, Integer> getScoreForRight = teamAndScoresPair -> determinePoints.apply(teamAndScoresPair.right.score.points, teamAndScoresPair.left.score.points);
+      /**
+       * Returns the id of the name or -1 if it has not been interned.
+       */
+      int find(byte[] bytes, int offset, int length) {
+         int hash = TeamDictionary.hash(bytes, offset, length);
+         int mask = capacity - 1;
+         int slot = hash & mask;
+         int id;
+         while(0 != (id = slots.getInt(4L * slot))){
+            if(matches(id - 1, hash, bytes, offset, length)){
+               return id - 1;
+            }
+            slot = (slot + 1) & mask;
+         }
+         return -1;
+      }
 
-      void add(TeamAndScoresPair teamAndScoresPair){
-         teamAndScoresPairSet.add(teamAndScoresPair);
+      void addPoints(int id, long amount){
+         long address = addressOf(id);
+         entries.putLong(address, entries.getLong(address) + amount);
       }
 
-      Scoreboard buildScoreboard(){
-         teamAndScoresPairSet.forEach(teamAndScoresPair -> {
-            if(!scores.containsKey(teamAndScoresPair.left.team)){
-               scores.put(teamAndScoresPair.left.team, new AtomicInteger(0));
+      long pointsOf(int id){
+         return entries.getLong(addressOf(id));
+      }
+
+      @Override
+      public int lengthOf(int id) {
+         return entries.getInt(addressOf(id) + 12);
+      }
+
+      @Override
+      public String nameOf(int id) {
+         byte[] name = new byte[lengthOf(id)];
+         copyName(id, 0, name, 0, name.length);
+         return new String(name, StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public long prefixOf(int id, int depth) {
+         long name = addressOf(id) + ENTRY_HEADER + depth;
+         int length = Math.min(Long.BYTES, lengthOf(id) - depth);
+         long prefix = 0;
+         for(int i = 0; i < length; i++){
+            prefix |= (entries.getByte(name + i) & 0xFFL) << (56 - 8 * i);
+         }
+         return prefix;
+      }
+
+      @Override
+      public int compareFrom(int a, int b, int depth) {
+         long aName = addressOf(a) + ENTRY_HEADER;
+         long bName = addressOf(b) + ENTRY_HEADER;
+         int aLength = lengthOf(a);
+         int bLength = lengthOf(b);
+         for(int i = depth; i < Math.min(aLength, bLength); i++){
+            int difference = (entries.getByte(aName + i) & 0xFF) - (entries.getByte(bName + i) & 0xFF);
+            if(0 != difference){
+               return difference;
             }
-            if(!scores.containsKey(teamAndScoresPair.right.team)){
-               scores.put(teamAndScoresPair.right.team, new AtomicInteger(0));
+         }
+         return Integer.compare(aLength, bLength);
+      }
+
+      @Override
+      public void copyName(int id, int from, byte[] destination, int offset, int length) {
+         entries.get(addressOf(id) + ENTRY_HEADER + from, destination, offset, length);
+      }
+
+      @Override
+      public void close() {
+         entries.close();
+         addresses.close();
+         slots.close();
+      }
+
+      private long addressOf(int id){
+         return addresses.getLong(8L * id);
+      }
+
+      private boolean matches(int id, int hash, byte[] bytes, int offset, int length){
+         long address = addressOf(id);
+         if(entries.getInt(address + 8) != hash || entries.getInt(address + 12) != length){
+            return false;
+         }
+         for(int i = 0; i < length; i++){
+            if(entries.getByte(address + ENTRY_HEADER + i) != bytes[offset + i]){
+               return false;
             }
+         }
+         return true;
+      }
 
-            int pointsForLeft = getScoreForLeft.apply(teamAndScoresPair);
-            int pointsForRight = getScoreForRight.apply(teamAndScoresPair);
+      private void append(int id, int hash, byte[] bytes, int offset, int length){
+         if(ENTRY_HEADER + length > pageSize){
+            throw new RuntimeException(String.format("Team name of <%d> bytes does not fit a page of <%d>", length, pageSize));
+         }
+         long address = entries.allocate(ENTRY_HEADER + length);
+         entries.putInt(address + 8, hash);
+         entries.putInt(address + 12, length);
+         entries.put(address + ENTRY_HEADER, bytes, offset, length);
+         addresses.ensureCapacity(8L * (id + 1));
+         addresses.putLong(8L * id, address);
+      }
 
-            scores.get(teamAndScoresPair.left.team).getAndAdd(pointsForLeft);
-            scores.get(teamAndScoresPair.right.team).getAndAdd(pointsForRight);
+      private void rehash(int newCapacity){
+         OffHeapMemory newSlots = newSlots(newCapacity);
+         int mask = newCapacity - 1;
+         for(int id = 0; id < size; id++){
+            int slot = entries.getInt(addressOf(id) + 8) & mask;
+            while(0 != newSlots.getInt(4L * slot)){
+               slot = (slot + 1) & mask;
+            }
+            newSlots.putInt(4L * slot, id + 1);
+         }
+         slots.close();
+         slots = newSlots;
+         capacity = newCapacity;
+      }
 
-         });
-         return new Scoreboard(scores);
+      private OffHeapMemory newSlots(int slotCount){
+         OffHeapMemory memory = new OffHeapMemory(spillDirectory, pageSize);
+         memory.ensureCapacity(4L * slotCount);
+         return memory;
       }
    }
 
@@ -188,7 +5553,7 @@ public class SpanProblem {
       static TeamAndScore parseFrom(String segment){
          String[] segments = segment.split(" ");
          if(2 > segments.length){
-            throw new RuntimeException();
+            throw new RuntimeException(String.format("Malformed segment <%s>", segment));
          }
          String points = segments[segments.length-1];
          String[] teamSegments = Arrays.copyOfRange(segments, 0, segments.length-1);
@@ -201,11 +5566,19 @@ public class SpanProblem {
 
    static class Team {
       final String name;
+      private byte[] nameBytes;
 
       Team(String name) {
          this.name = name;
       }
 
+      byte[] nameBytes() {
+         if(null == nameBytes){
+            nameBytes = name.getBytes(StandardCharsets.UTF_8);
+         }
+         return nameBytes;
+      }
+
       @Override
       public boolean equals(Object o) {
          if (this == o) return true;
@@ -216,7 +5589,7 @@ public class SpanProblem {
 
       @Override
       public int hashCode() {
-         return Objects.hash(name);
+         return name.hashCode();
       }
    }
 
@@ -241,16 +5614,67 @@ public class SpanProblem {
          return (Success) this;
       }
 
+      default boolean isFailure(){
+         return this instanceof Failure;
+      }
+
+      default Failure asFailure(){
+         if(!isFailure()){
+            throw new IllegalArgumentException();
+         }
+         return (Failure) this;
+      }
+
       class Success implements ScanResult {
+         private final String partition;
          private final Scoreboard scoreboard;
 
          public Success(Scoreboard scoreboard) {
+            this(null, scoreboard);
+         }
+
+         public Success(String partition, Scoreboard scoreboard) {
+            this.partition = partition;
             this.scoreboard = scoreboard;
          }
 
+         /**
+          * The partition key the scoreboard was scored for, null when the scan was not partitioned.
+          */
+         public String getPartition() {
+            return partition;
+         }
+
          public Scoreboard getScoreboard() {
             return scoreboard;
          }
       }
+
+      /**
+       * A row a lenient scan rejected: its 1-based line number, the offset of its first byte and why.
+       */
+      class Failure implements ScanResult {
+         private final long lineNumber;
+         private final long byteOffset;
+         private final String reason;
+
+         public Failure(long lineNumber, long byteOffset, String reason) {
+            this.lineNumber = lineNumber;
+            this.byteOffset = byteOffset;
+            this.reason = reason;
+         }
+
+         public long getLineNumber() {
+            return lineNumber;
+         }
+
+         public long getByteOffset() {
+            return byteOffset;
+         }
+
+         public String getReason() {
+            return reason;
+         }
+      }
    }
 }
@@ -1,11 +1,47 @@
 package span.problem;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class SpanProblemTests {
 
@@ -19,6 +55,54 @@ public class SpanProblemTests {
       this.testGenerateRandomDatasetWithRandomScoresAndCompareParsedResult();
       //as all scores are the same, this verifies that all teams have the same rank and that this is invariant provided score is the same
       this.testGenerateRandomDatasetWithAllEqualScoresAndCompareParsedResult();
+      //the byte level parser must agree with the Scanner based one
+      this.testByteParserMatchesScannerParser();
+      this.testByteParserHandlesAwkwardRows();
+      //chunked, memory mapped ingestion must agree with the single threaded path
+      this.testChunkedFileMatchesInputStream();
+      //scores are accumulated as matches arrive and scoreboards are snapshots
+      this.testAccumulatorScoresOnAddAndSnapshots();
+      this.testTeamDictionaryInternsDenseIds();
+      //the live standings must agree with a freshly prepared scoreboard after every batch of results
+      this.testLiveStandingsMatchPreparedScoreboard();
+      //several producers feeding one scoreboard
+      this.testConcurrentIngestionMatchesSingleStream();
+      //the buffered renderer must print exactly the prepared rows
+      this.testScoreboardWriterMatchesPreparedRows();
+      //generated load files only depend on the seed and sizes
+      this.testDatasetGeneratorIsDeterministic();
+      //a warm server ingesting from several localhost clients
+      this.testStandingsServerServesLocalClients();
+      //re-scoring from the binary store must agree with parsing the CSV
+      this.testMatchStoreMatchesCsv();
+      //refreshing a growing file only parses what was appended
+      this.testTailedFileResumesFromCheckpoint();
+      //scans report rows, bytes and stage latencies over JMX and JFR
+      this.testInstrumentationPublishesEventsAndCounters();
+      //bad rows are set aside, up to a budget, while the rest are scored
+      this.testLenientScanQuarantinesBadRows();
+      //one pass over several leagues yields one scoreboard per league
+      this.testPartitionedScanMatchesPerPartitionScans();
+      //gzip input, single and multi member, in order and in parallel
+      this.testGzipScansMatchPlainScan();
+      //the linear time ranking must agree with a comparison sort, however the points spread
+      this.testRankingSortMatchesComparisonSort();
+      //team tables kept off the heap, in direct memory or spilled to files, must print the same standings
+      this.testOffHeapTableMatchesHeapScoreboard();
+      //shards scored by separate worker processes merge into the standings of a single run
+      this.testPartialScoreboardsMergeAcrossProcesses();
+      //sliding the window must leave the standings a rebuild over the window would give
+      this.testWindowedStandingsMatchRebuiltWindows();
+      //reader, parser and aggregation stages over Flow must agree with the single threaded parser
+      this.testPipelinedStagesMatchByteParser();
+      //replayed segments of a feed are scored once, by id or by teams and scores
+      this.testDeduplicatedScanDropsReplayedRows();
+      //custom points and goal based tie-breakers rank like a plain comparison sort of the same keys
+      this.testScoringRulesRankByTieBreakers();
+      //team histories and head-to-heads from the index must be the rows a scan of the input would pick out
+      this.testMatchIndexAnswersLikeRescans();
+      //a batch of files scored in one JVM must match scoring each file, or all of them concatenated, on its own
+      this.testBatchOfFilesMatchesSeparateScans();
 
       //TODO the basic rig for testing is there, however, for brevity, we'll do them later
    }
@@ -98,4 +182,1331 @@ public class SpanProblemTests {
 
       scoreboardsConsumer.accept(thisScoreboard, parsedScoreboard);
    }
+
+   private void testByteParserMatchesScannerParser() {
+      AtomicInteger numGames = new AtomicInteger(10);
+      while(numGames.get() < 1000000) {
+         System.out.println(String.format("Comparing byte parser and Scanner parser over <%d> random rows", numGames.get()));
+         Set<SpanProblem.TeamAndScoresPair> teamAndScoresPairs = TestUtils.randomAndRandom.apply(numGames.get());
+         SpanProblem spanProblem = TestUtils.newSpanProblem();
+
+         List<String> scannerRows = spanProblem.handleInputStream(TestUtils.toInputStream.apply(teamAndScoresPairs))
+            .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+         Set<SpanProblem.ScanResult> scanResults = spanProblem.handleInputStreamBytes(TestUtils.toInputStream.apply(teamAndScoresPairs));
+         TestUtils.doAssertScanIsSuccess(scanResults.iterator());
+         List<String> byteRows = scanResults.iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+         TestUtils.doAssert(scannerRows.equals(byteRows), "Byte parser and Scanner parser disagree");
+         numGames.getAndSet(numGames.get() * 10);
+      }
+      System.out.println(String.format("Success: <%s>", "testByteParserMatchesScannerParser"));
+   }
+
+   private void testByteParserHandlesAwkwardRows() {
+      String input = "  Lions 3,Snakes 3 \r\n"
+         + "Tarantulas 1, FC  Awesome 0\n"
+         + "Lions 1,   FC Zurich 1\n"
+         + "\tTarantulas 3, Snakes -1\n"
+         + "Lions 4, Grouches +0\n"
+         + "\n";
+      SpanProblem spanProblem = TestUtils.newSpanProblem();
+      List<String> scannerRows = spanProblem.handleInputStream(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)))
+         .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+      //a tiny buffer forces rows to straddle reads and the buffer to grow
+      SpanProblem.ScoresAccumulator scoresAccumulator = new SpanProblem.ScoresAccumulator();
+      try {
+         new SpanProblem.MatchLineParser(4).parse(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), scoresAccumulator);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      List<String> byteRows = scoresAccumulator.buildScoreboard().prepareScoreboard();
+      TestUtils.doAssert(scannerRows.equals(byteRows), String.format("Expected <%s> got <%s>", scannerRows, byteRows));
+
+      for (String malformed : new String[]{"Lions 3", "Lions 3, Snakes", "Lions 3, Snakes x", "Lions 3, Snakes 1, Bears 2", "3, Snakes 1"}) {
+         boolean thrown = false;
+         try {
+            spanProblem.handleInputStreamBytes(new ByteArrayInputStream(malformed.getBytes(StandardCharsets.UTF_8)));
+         } catch (RuntimeException e) {
+            thrown = true;
+         }
+         TestUtils.doAssert(thrown, String.format("Expected row <%s> to be rejected", malformed));
+      }
+      System.out.println(String.format("Success: <%s>", "testByteParserHandlesAwkwardRows"));
+   }
+
+   private void testChunkedFileMatchesInputStream() {
+      AtomicInteger numGames = new AtomicInteger(10);
+      try {
+         Path path = Files.createTempFile("span-chunked", ".csv");
+         try {
+            while(numGames.get() < 1000000) {
+               System.out.println(String.format("Comparing chunked file scan and stream scan over <%d> random rows", numGames.get()));
+               byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(numGames.get())).readAllBytes();
+               //drop the final newline so the last chunk also ends mid line
+               Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+               SpanProblem spanProblem = TestUtils.newSpanProblem();
+               List<String> streamRows = spanProblem.handleInputStream(new ByteArrayInputStream(bytes))
+                  .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+               for (int chunkSize : new int[]{1, 64, 4096, SpanProblem.MIN_CHUNK_SIZE}) {
+                  try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                     Set<SpanProblem.ScanResult> scanResults = spanProblem.handleFileChunked(fileChannel, chunkSize);
+                     TestUtils.doAssertScanIsSuccess(scanResults.iterator());
+                     List<String> chunkedRows = scanResults.iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+                     TestUtils.doAssert(streamRows.equals(chunkedRows),
+                        String.format("Chunked scan with chunk size <%d> disagrees with stream scan", chunkSize));
+                  }
+               }
+               TestUtils.doAssert(streamRows.equals(spanProblem.handleFileChunked(path).iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+                  "Chunked scan with default chunk size disagrees with stream scan");
+               numGames.getAndSet(numGames.get() * 10);
+            }
+
+            Files.write(path, new byte[0]);
+            TestUtils.doAssert(TestUtils.newSpanProblem().handleFileChunked(path).iterator().next().asSuccess().getScoreboard().prepareScoreboard().isEmpty(),
+               "Expecting an empty scoreboard for an empty file");
+         } finally {
+            Files.deleteIfExists(path);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testChunkedFileMatchesInputStream"));
+   }
+
+   private void testAccumulatorScoresOnAddAndSnapshots() {
+      SpanProblem.ScoresAccumulator scoresAccumulator = new SpanProblem.ScoresAccumulator();
+      scoresAccumulator.add(new SpanProblem.TeamAndScoresPair(
+         new SpanProblem.TeamAndScore(TestUtils.sparta, new SpanProblem.Score(2)),
+         new SpanProblem.TeamAndScore(TestUtils.barbarians, new SpanProblem.Score(1))));
+
+      List<String> first = scoresAccumulator.buildScoreboard().prepareScoreboard();
+      TestUtils.doAssert(first.equals(scoresAccumulator.buildScoreboard().prepareScoreboard()),
+         "Building a scoreboard twice must not count matches twice");
+
+      SpanProblem.Scoreboard snapshot = scoresAccumulator.buildScoreboard();
+      scoresAccumulator.add(new SpanProblem.TeamAndScoresPair(
+         new SpanProblem.TeamAndScore(TestUtils.barbarians, new SpanProblem.Score(1)),
+         new SpanProblem.TeamAndScore(TestUtils.sparta, new SpanProblem.Score(1))));
+
+      TestUtils.doAssert(first.equals(snapshot.prepareScoreboard()), "Snapshot changed after a later add");
+      List<String> second = scoresAccumulator.buildScoreboard().prepareScoreboard();
+      TestUtils.doAssert(second.get(0).equals("1. Sparta, 4 pts"), String.format("Unexpected leader <%s>", second.get(0)));
+      TestUtils.doAssert(second.get(1).equals("2. Barbarians, 1 pts"), String.format("Unexpected runner up <%s>", second.get(1)));
+      System.out.println(String.format("Success: <%s>", "testAccumulatorScoresOnAddAndSnapshots"));
+   }
+
+   private void testTeamDictionaryInternsDenseIds() {
+      SpanProblem.TeamDictionary teams = new SpanProblem.TeamDictionary();
+      int count = 100000;
+      for (int i = 0; i < count; i++) {
+         byte[] name = String.format("Team %d", i).getBytes(StandardCharsets.UTF_8);
+         TestUtils.doAssert(i == teams.intern(name), String.format("Expected dense id <%d>", i));
+      }
+      TestUtils.doAssert(count == teams.size(), "Unexpected dictionary size");
+      for (int i = 0; i < count; i += 997) {
+         byte[] padded = String.format("[Team %d]", i).getBytes(StandardCharsets.UTF_8);
+         TestUtils.doAssert(i == teams.intern(padded, 1, padded.length - 2), "Interning a known name must return its id");
+         TestUtils.doAssert(i == teams.find(padded, 1, padded.length - 2), "Find must return the interned id");
+         TestUtils.doAssert(String.format("Team %d", i).equals(teams.nameOf(i)), "Name does not round trip");
+      }
+      byte[] unknown = "Nobody".getBytes(StandardCharsets.UTF_8);
+      TestUtils.doAssert(-1 == teams.find(unknown, 0, unknown.length), "Unknown names must not be found");
+      TestUtils.doAssert(0 > teams.compare(teams.find("Team 10".getBytes(StandardCharsets.UTF_8), 0, 7), 2), "Expecting byte wise name order");
+      System.out.println(String.format("Success: <%s>", "testTeamDictionaryInternsDenseIds"));
+   }
+
+   private void testLiveStandingsMatchPreparedScoreboard() {
+      SpanProblem.LiveStandings liveStandings = new SpanProblem.LiveStandings();
+      Random random = new Random(5);
+      int teamCount = 300;
+      for (int batch = 0; batch < 20; batch++) {
+         for (int i = 0; i < 200; i++) {
+            int leftIdx = random.nextInt(teamCount);
+            int rightIdx = (leftIdx + 1 + random.nextInt(teamCount - 1)) % teamCount;
+            liveStandings.add(new SpanProblem.TeamAndScoresPair(
+               new SpanProblem.TeamAndScore(new SpanProblem.Team(String.format("Team %d", leftIdx)), new SpanProblem.Score(random.nextInt(4))),
+               new SpanProblem.TeamAndScore(new SpanProblem.Team(String.format("Team %d", rightIdx)), new SpanProblem.Score(random.nextInt(4)))));
+         }
+         List<String> expected = liveStandings.buildScoreboard().prepareScoreboard();
+         TestUtils.doAssert(expected.equals(liveStandings.top(Integer.MAX_VALUE)), "Live standings disagree with prepared scoreboard");
+         TestUtils.doAssert(expected.subList(0, 10).equals(liveStandings.top(10)), "Top 10 disagrees with prepared scoreboard");
+
+         int lastRank = TestUtils.extractRank(expected.get(expected.size() - 1));
+         for (int rank = 1; rank <= lastRank; rank++) {
+            List<String> rows = liveStandings.teamsAtRank(rank);
+            TestUtils.doAssert(!rows.isEmpty(), String.format("No teams at rank <%d>", rank));
+            for (String row : rows) {
+               TestUtils.doAssert(rank == TestUtils.extractRank(row), String.format("Row <%s> is not of rank <%d>", row, rank));
+               TestUtils.doAssert(expected.contains(row), String.format("Unexpected row <%s>", row));
+            }
+         }
+         TestUtils.doAssert(liveStandings.teamsAtRank(lastRank + 1).isEmpty(), "Expecting no teams past the last rank");
+         for (String row : expected) {
+            String team = row.substring(row.indexOf(' ') + 1, row.lastIndexOf(','));
+            TestUtils.doAssert(TestUtils.extractRank(row) == liveStandings.rankOf(team), String.format("Wrong rank for <%s>", team));
+         }
+      }
+      TestUtils.doAssert(0 == liveStandings.rankOf("Nobody"), "Unknown teams have no rank");
+      System.out.println(String.format("Success: <%s>", "testLiveStandingsMatchPreparedScoreboard"));
+   }
+
+   private void testConcurrentIngestionMatchesSingleStream() {
+      List<SpanProblem.TeamAndScoresPair> teamAndScoresPairs = new ArrayList<>(TestUtils.randomAndRandom.apply(100000));
+      SpanProblem spanProblem = TestUtils.newSpanProblem();
+      List<String> expected = spanProblem.handleInputStream(TestUtils.toInputStream.apply(new HashSet<>(teamAndScoresPairs)))
+         .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+      int feeds = 7;
+      List<InputStream> inputStreams = new ArrayList<>();
+      for (int feed = 0; feed < feeds; feed++) {
+         Set<SpanProblem.TeamAndScoresPair> slice = new HashSet<>();
+         for (int i = feed; i < teamAndScoresPairs.size(); i += feeds) {
+            slice.add(teamAndScoresPairs.get(i));
+         }
+         inputStreams.add(TestUtils.toInputStream.apply(slice));
+      }
+      Set<SpanProblem.ScanResult> scanResults = spanProblem.handleInputStreams(inputStreams);
+      TestUtils.doAssertScanIsSuccess(scanResults.iterator());
+      TestUtils.doAssert(expected.equals(scanResults.iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+         "Concurrent stream ingestion disagrees with a single stream");
+
+      SpanProblem.ConcurrentScoresAccumulator scoresAccumulator = new SpanProblem.ConcurrentScoresAccumulator();
+      List<Thread> producers = new ArrayList<>();
+      for (int feed = 0; feed < feeds; feed++) {
+         int first = feed;
+         producers.add(new Thread(() -> {
+            for (int i = first; i < teamAndScoresPairs.size(); i += feeds) {
+               scoresAccumulator.add(teamAndScoresPairs.get(i));
+               if (0 == i % 10000) {
+                  //reading while producers are writing must be safe
+                  scoresAccumulator.buildScoreboard();
+               }
+            }
+            //half the producers hand their shards back as they finish
+            if (0 == first % 2) {
+               scoresAccumulator.release();
+            }
+         }));
+      }
+      producers.forEach(Thread::start);
+      producers.forEach(producer -> {
+         try {
+            producer.join();
+         } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+         }
+      });
+      TestUtils.doAssert(expected.equals(scoresAccumulator.buildScoreboard().prepareScoreboard()),
+         "Concurrent producers disagree with a single stream");
+      TestUtils.doAssert(feeds / 2 == scoresAccumulator.getShardCount(),
+         String.format("Expecting released shards dropped, <%d> left", scoresAccumulator.getShardCount()));
+      System.out.println(String.format("Success: <%s>", "testConcurrentIngestionMatchesSingleStream"));
+   }
+
+   private void testScoreboardWriterMatchesPreparedRows() {
+      SpanProblem.LiveStandings scoresAccumulator = new SpanProblem.LiveStandings();
+      Random random = new Random(8);
+      for (int i = 0; i < 20000; i++) {
+         int leftIdx = random.nextInt(2000);
+         int rightIdx = (leftIdx + 1 + random.nextInt(1999)) % 2000;
+         scoresAccumulator.add(new SpanProblem.TeamAndScoresPair(
+            new SpanProblem.TeamAndScore(new SpanProblem.Team(String.format("Team %d", leftIdx)), new SpanProblem.Score(random.nextInt(4))),
+            new SpanProblem.TeamAndScore(new SpanProblem.Team(String.format("Team %d", rightIdx)), new SpanProblem.Score(random.nextInt(4)))));
+      }
+      SpanProblem.Scoreboard scoreboard = scoresAccumulator.buildScoreboard();
+      List<String> expected = scoreboard.prepareScoreboard();
+      try {
+         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+         new SpanProblem.ScoreboardWriter(outputStream).write(scoreboard);
+         TestUtils.doAssert(joinLines(expected).equals(outputStream.toString(StandardCharsets.UTF_8)), "Rendered rows differ from prepared rows");
+
+         for (int topK : new int[]{0, 1, 10, 1000, 5000}) {
+            ByteArrayOutputStream channelOutput = new ByteArrayOutputStream();
+            //a tiny buffer makes every row span several drains
+            new SpanProblem.ScoreboardWriter(null, Channels.newChannel(channelOutput), 7).write(scoreboard, topK);
+            TestUtils.doAssert(joinLines(expected.subList(0, Math.min(topK, expected.size()))).equals(channelOutput.toString(StandardCharsets.UTF_8)),
+               String.format("Top <%d> rows differ from prepared rows", topK));
+            TestUtils.doAssert(scoresAccumulator.top(topK).equals(expected.subList(0, Math.min(topK, expected.size()))),
+               String.format("Top <%d> live rows differ from prepared rows", topK));
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testScoreboardWriterMatchesPreparedRows"));
+   }
+
+   private static String joinLines(List<String> rows) {
+      StringBuilder stringBuilder = new StringBuilder();
+      rows.forEach(row -> stringBuilder.append(row).append(System.lineSeparator()));
+      return stringBuilder.toString();
+   }
+
+   private void testDatasetGeneratorIsDeterministic() {
+      try {
+         Path single = Files.createTempFile("span-generated", ".csv");
+         Path parallel = Files.createTempFile("span-generated", ".csv");
+         try {
+            int rows = 3 * TestUtils.DatasetGenerator.BLOCK_ROWS + 17;
+            new TestUtils.DatasetGenerator(rows, 500, 42, 3, 30, 1).writeTo(single);
+            new TestUtils.DatasetGenerator(rows, 500, 42, 3, 30, 4).writeTo(parallel);
+            byte[] bytes = Files.readAllBytes(single);
+            TestUtils.doAssert(Arrays.equals(bytes, Files.readAllBytes(parallel)), "Output depends on the number of threads");
+
+            List<String> lines = Files.readAllLines(single, StandardCharsets.UTF_8);
+            TestUtils.doAssert(rows == lines.size(), String.format("Expected <%d> rows got <%d>", rows, lines.size()));
+            Set<String> teams = new HashSet<>();
+            for (String line : lines) {
+               SpanProblem.TeamAndScoresPair teamAndScoresPair = SpanProblem.extractTeamAndScores.apply(line);
+               TestUtils.doAssert(!teamAndScoresPair.left.isTeam(teamAndScoresPair.right), "Teams cannot play against themselves");
+               teams.add(teamAndScoresPair.left.team.name);
+               teams.add(teamAndScoresPair.right.team.name);
+            }
+            TestUtils.doAssert(500 == teams.size(), String.format("Expected <500> teams got <%d>", teams.size()));
+            for (String team : teams) {
+               TestUtils.doAssert(team.equals(team.trim()) && !team.contains("  "), String.format("Badly spaced name <%s>", team));
+               TestUtils.doAssert(3 <= team.length() && team.length() <= 30, String.format("Name length out of range <%s>", team));
+            }
+
+            new TestUtils.DatasetGenerator(rows, 500, 43, 3, 30, 4).writeTo(parallel);
+            TestUtils.doAssert(!Arrays.equals(bytes, Files.readAllBytes(parallel)), "Different seeds should give different rows");
+         } finally {
+            Files.deleteIfExists(single);
+            Files.deleteIfExists(parallel);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testDatasetGeneratorIsDeterministic"));
+   }
+
+   private void testStandingsServerServesLocalClients() {
+      List<SpanProblem.TeamAndScoresPair> teamAndScoresPairs = new ArrayList<>(TestUtils.randomAndRandom.apply(5000));
+      SpanProblem.ScoresAccumulator scoresAccumulator = new SpanProblem.ScoresAccumulator();
+      teamAndScoresPairs.forEach(scoresAccumulator::add);
+      List<String> expected = scoresAccumulator.buildScoreboard().prepareScoreboard();
+
+      try {
+         Thread acceptor;
+         try (SpanProblem.StandingsServer standingsServer = new SpanProblem.StandingsServer(0)) {
+            acceptor = new Thread(standingsServer);
+            acceptor.start();
+            int port = standingsServer.getAddress().getPort();
+
+            int clients = 4;
+            List<Thread> producers = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+               int first = client;
+               producers.add(new Thread(() -> {
+                  try (Socket socket = new Socket("localhost", port)) {
+                     Set<SpanProblem.TeamAndScoresPair> slice = new HashSet<>();
+                     for (int i = first; i < teamAndScoresPairs.size(); i += clients) {
+                        slice.add(teamAndScoresPairs.get(i));
+                     }
+                     OutputStream outputStream = socket.getOutputStream();
+                     outputStream.write(TestUtils.toInputStream.apply(slice).readAllBytes());
+                     //a query on the same connection is only answered once every earlier line was ingested
+                     outputStream.write("TOP 1\n".getBytes(StandardCharsets.UTF_8));
+                     outputStream.flush();
+                     readReply(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)));
+                  } catch (IOException e) {
+                     throw new RuntimeException(e);
+                  }
+               }));
+            }
+            producers.forEach(Thread::start);
+            for (Thread producer : producers) {
+               producer.join();
+            }
+
+            try (Socket socket = new Socket("localhost", port)) {
+               BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+               OutputStream outputStream = socket.getOutputStream();
+
+               outputStream.write("STANDINGS\n".getBytes(StandardCharsets.UTF_8));
+               outputStream.flush();
+               TestUtils.doAssert(expected.equals(readReply(reader)), "Served standings disagree with a local scoreboard");
+
+               outputStream.write("TOP 3\nAT 1\nRANK Sparta\nbogus, row\nQUIT\n".getBytes(StandardCharsets.UTF_8));
+               outputStream.flush();
+               TestUtils.doAssert(expected.subList(0, 3).equals(readReply(reader)), "Unexpected top 3");
+               for (String row : readReply(reader)) {
+                  TestUtils.doAssert(1 == TestUtils.extractRank(row), String.format("Row <%s> is not of rank 1", row));
+               }
+               String spartaRow = expected.stream().filter(row -> row.contains(" Sparta,")).findFirst().get();
+               TestUtils.doAssert(String.valueOf(TestUtils.extractRank(spartaRow)).equals(readReply(reader).get(0)), "Unexpected rank for Sparta");
+               TestUtils.doAssert(reader.readLine().startsWith("ERROR"), "Expecting malformed rows to be reported");
+               TestUtils.doAssert(null == reader.readLine(), "Expecting QUIT to close the connection");
+            }
+         }
+         //closing the server must stop the acceptor
+         acceptor.join();
+      } catch (IOException | InterruptedException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testStandingsServerServesLocalClients"));
+   }
+
+   private static List<String> readReply(BufferedReader reader) throws IOException {
+      List<String> rows = new ArrayList<>();
+      for (String line = reader.readLine(); null != line && !line.isEmpty(); line = reader.readLine()) {
+         rows.add(line);
+      }
+      return rows;
+   }
+
+   private void testMatchStoreMatchesCsv() {
+      try {
+         Path csv = Files.createTempFile("span-store", ".csv");
+         Path store = Files.createTempFile("span-store", ".bin");
+         try {
+            for (int numGames : new int[]{0, 10, 100000}) {
+               byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(numGames)).readAllBytes();
+               Files.write(csv, bytes);
+               SpanProblem spanProblem = TestUtils.newSpanProblem();
+               List<String> expected = spanProblem.handleInputStream(new ByteArrayInputStream(bytes))
+                  .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+               TestUtils.doAssert(numGames == SpanProblem.MatchStore.convert(csv, store), "Unexpected number of converted matches");
+               Set<SpanProblem.ScanResult> scanResults = spanProblem.handleMatchStore(store);
+               TestUtils.doAssertScanIsSuccess(scanResults.iterator());
+               TestUtils.doAssert(expected.equals(scanResults.iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+                  String.format("Store of <%d> matches disagrees with the CSV", numGames));
+
+               //replaying into an accumulator that already knows other teams remaps the ids
+               SpanProblem.ScoresAccumulator scoresAccumulator = new SpanProblem.ScoresAccumulator();
+               scoresAccumulator.add(new SpanProblem.TeamAndScoresPair(
+                  new SpanProblem.TeamAndScore(new SpanProblem.Team("Outsiders"), new SpanProblem.Score(0)),
+                  new SpanProblem.TeamAndScore(TestUtils.thebanThunder, new SpanProblem.Score(0))));
+               SpanProblem.MatchStore.replay(store, scoresAccumulator);
+               SpanProblem.MatchStore.replay(store, scoresAccumulator);
+               SpanProblem.ScoresAccumulator twice = new SpanProblem.ScoresAccumulator();
+               twice.merge(scoresAccumulator);
+               TestUtils.doAssert(scoresAccumulator.buildScoreboard().prepareScoreboard().equals(twice.buildScoreboard().prepareScoreboard()),
+                  "Merged replay disagrees");
+            }
+         } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(store);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testMatchStoreMatchesCsv"));
+   }
+
+   private void testTailedFileResumesFromCheckpoint() {
+      try {
+         Path csv = Files.createTempFile("span-tail", ".csv");
+         Path checkpoint = Files.createTempFile("span-tail", ".checkpoint");
+         Files.delete(checkpoint);
+         try {
+            byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(30000)).readAllBytes();
+            SpanProblem spanProblem = TestUtils.newSpanProblem();
+            List<String> expected = spanProblem.handleInputStream(new ByteArrayInputStream(bytes))
+               .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+            //the first refresh stops before the partial line at the end
+            int cut = bytes.length / 3 + 5;
+            while ('\n' == bytes[cut - 1]) {
+               cut++;
+            }
+            Files.write(csv, Arrays.copyOf(bytes, cut));
+            SpanProblem.TailedFile tailedFile = new SpanProblem.TailedFile(csv, checkpoint);
+            tailedFile.refresh();
+            long firstOffset = tailedFile.getOffset();
+            TestUtils.doAssert(firstOffset < cut && '\n' == bytes[(int) firstOffset - 1], "Expecting the offset to stop at the last complete line");
+            List<String> partial = spanProblem.handleInputStream(new ByteArrayInputStream(Arrays.copyOf(bytes, (int) firstOffset)))
+               .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+            TestUtils.doAssert(partial.equals(tailedFile.refresh().prepareScoreboard()), "Unexpected partial standings");
+            TestUtils.doAssert(0 == tailedFile.getLastRefreshBytes(), "Nothing was appended, nothing should be parsed");
+
+            //a restarted tail picks up from the checkpoint and only parses the new bytes
+            Files.write(csv, Arrays.copyOfRange(bytes, cut, bytes.length), StandardOpenOption.APPEND);
+            SpanProblem.TailedFile restarted = new SpanProblem.TailedFile(csv, checkpoint);
+            TestUtils.doAssert(firstOffset == restarted.getOffset(), "Offset was not restored from the checkpoint");
+            TestUtils.doAssert(expected.equals(restarted.refresh().prepareScoreboard()), "Resumed standings disagree with a full scan");
+            TestUtils.doAssert(bytes.length - firstOffset == restarted.getLastRefreshBytes(), "Expecting only the appended bytes to be parsed");
+
+            //a file that shrank was replaced and is scored from scratch
+            Files.write(csv, Arrays.copyOf(bytes, (int) firstOffset));
+            TestUtils.doAssert(partial.equals(restarted.refresh().prepareScoreboard()), "Replaced file was not rescored");
+
+            //a file rewritten in place to the same size, every score changed, is scored from scratch too
+            byte[] rewritten = Arrays.copyOf(bytes, (int) firstOffset);
+            for (int i = 0; i < rewritten.length; i++) {
+               if ('0' <= rewritten[i] && rewritten[i] <= '9') {
+                  rewritten[i] = (byte) ('9' - rewritten[i] + '0');
+               }
+            }
+            Files.write(csv, rewritten);
+            TestUtils.doAssert(spanProblem.handleInputStream(new ByteArrayInputStream(rewritten)).iterator().next().asSuccess().getScoreboard().prepareScoreboard()
+               .equals(restarted.refresh().prepareScoreboard()), "File rewritten to the same size was not rescored");
+
+            //and so is another, larger file rotated into its place
+            byte[] rotated = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(40000)).readAllBytes();
+            Path next = Files.createTempFile(csv.getParent(), "span-tail", ".csv");
+            Files.write(next, rotated);
+            Files.move(next, csv, StandardCopyOption.REPLACE_EXISTING);
+            SpanProblem.TailedFile resumedAfterRotation = new SpanProblem.TailedFile(csv, checkpoint);
+            TestUtils.doAssert(spanProblem.handleInputStream(new ByteArrayInputStream(rotated)).iterator().next().asSuccess().getScoreboard().prepareScoreboard()
+               .equals(resumedAfterRotation.refresh().prepareScoreboard()), "Rotated file was not rescored");
+         } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(checkpoint);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testTailedFileResumesFromCheckpoint"));
+   }
+
+   private void testInstrumentationPublishesEventsAndCounters() {
+      try {
+         byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(100000)).readAllBytes();
+         long rows = new String(bytes, StandardCharsets.UTF_8).lines().count();
+         MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+         ObjectName stats = new ObjectName("span.problem:type=Stats");
+         mBeanServer.invoke(stats, "reset", new Object[0], new String[0]);
+
+         Path dump = Files.createTempFile("span-instrumentation", ".jfr");
+         Path file = Files.write(Files.createTempFile("span-instrumentation", ".csv"), bytes);
+         try (Recording recording = new Recording()) {
+            for (String event : List.of("span.problem.Read", "span.problem.Parse", "span.problem.BuildScoreboard", "span.problem.PrepareScoreboard")) {
+               recording.enable(event);
+            }
+            recording.start();
+            SpanProblem spanProblem = TestUtils.newSpanProblem();
+            spanProblem.handleInputStreamBytes(new ByteArrayInputStream(bytes)).iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+            spanProblem.handleInputStream(new ByteArrayInputStream(bytes));
+            //memory mapped chunks and the print path record their stages too
+            new SpanProblem.ScoreboardWriter(new ByteArrayOutputStream())
+               .write(spanProblem.handleFileChunked(file).iterator().next().asSuccess().getScoreboard());
+            recording.stop();
+            recording.dump(dump);
+
+            TestUtils.doAssert(3 * rows == (Long) mBeanServer.getAttribute(stats, "RowsProcessed"), "Unexpected rows processed");
+            TestUtils.doAssert(3L * bytes.length == (Long) mBeanServer.getAttribute(stats, "BytesRead"), "Unexpected bytes read");
+            TestUtils.doAssert(0 < (Double) mBeanServer.getAttribute(stats, "RowsPerSecond"), "Expecting a throughput");
+            TestUtils.doAssert(0 < Arrays.stream((long[]) mBeanServer.getAttribute(stats, "ParseLatencyHistogram")).sum(), "Expecting parse timings");
+            TestUtils.doAssert(rows > Arrays.stream((long[]) mBeanServer.getAttribute(stats, "ParseLatencyHistogram")).sum(), "Expecting parse timings per buffer, not per row");
+            TestUtils.doAssert(3 == Arrays.stream((long[]) mBeanServer.getAttribute(stats, "BuildScoreboardLatencyHistogram")).sum(), "Expecting a build timing per scan");
+            TestUtils.doAssert(2 == Arrays.stream((long[]) mBeanServer.getAttribute(stats, "PrepareScoreboardLatencyHistogram")).sum(), "Expecting a prepare timing per prepared or written scoreboard");
+
+            long parsedRows = 0;
+            Set<String> seen = new HashSet<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+               seen.add(event.getEventType().getName());
+               if ("span.problem.Parse".equals(event.getEventType().getName())) {
+                  parsedRows += event.getLong("rows");
+               }
+            }
+            TestUtils.doAssert(4 == seen.size(), String.format("Expecting every stage to be recorded, got <%s>", seen));
+            TestUtils.doAssert(3 * rows == parsedRows, "Parse events must cover every row");
+
+            //a malformed row is counted once, whichever parser rejects it and whether or not it ends the scan
+            for (Function<InputStream, Set<SpanProblem.ScanResult>> scan : List.<Function<InputStream, Set<SpanProblem.ScanResult>>>of(
+               spanProblem::handleInputStream, spanProblem::handleInputStreamBytes)) {
+               try {
+                  scan.apply(new ByteArrayInputStream("Lions 3, Snakes 1\nLions x, Snakes 1\n".getBytes(StandardCharsets.UTF_8)));
+               } catch (RuntimeException e) {
+                  //expected
+               }
+            }
+            spanProblem.handleInputStreamLenient(new ByteArrayInputStream("Lions 3 Snakes 3\nLions 3, Snakes 1\n".getBytes(StandardCharsets.UTF_8)), null, 1);
+            TestUtils.doAssert(3L == (Long) mBeanServer.getAttribute(stats, "RejectedRows"),
+               String.format("Expecting 3 rejected rows, got <%s>", mBeanServer.getAttribute(stats, "RejectedRows")));
+         } finally {
+            Files.deleteIfExists(dump);
+            Files.deleteIfExists(file);
+         }
+      } catch (IOException | JMException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testInstrumentationPublishesEventsAndCounters"));
+   }
+
+   private void testLenientScanQuarantinesBadRows() {
+      byte[] clean;
+      try {
+         clean = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(5000)).readAllBytes();
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      List<String> rows = Arrays.asList(new String(clean, StandardCharsets.UTF_8).split("\n"));
+      List<String> badRows = Arrays.asList("Lions 3 Snakes 3", "Lions 3, Snakes", "Lions x, Snakes 1", "Lions 1, Snakes 2, Tarantulas 3");
+      StringBuilder input = new StringBuilder();
+      List<Long> badLines = new ArrayList<>();
+      List<Long> badOffsets = new ArrayList<>();
+      Random random = new Random(14);
+      long line = 0;
+      for (String row : rows) {
+         if (badLines.size() < badRows.size() && 0 == random.nextInt(1000)) {
+            badLines.add(++line);
+            badOffsets.add((long) input.length());
+            input.append(badRows.get(badLines.size() - 1)).append('\n');
+         }
+         line++;
+         input.append(row).append('\n');
+      }
+      byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+      SpanProblem spanProblem = TestUtils.newSpanProblem();
+      List<String> expected = spanProblem.handleInputStreamBytes(new ByteArrayInputStream(clean))
+         .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+      ByteArrayOutputStream quarantine = new ByteArrayOutputStream();
+      Set<SpanProblem.ScanResult> scanResults = spanProblem.handleInputStreamLenient(new ByteArrayInputStream(bytes), quarantine, badLines.size());
+      List<SpanProblem.ScanResult.Failure> failures = new ArrayList<>();
+      List<String> standings = null;
+      for (SpanProblem.ScanResult scanResult : scanResults) {
+         if (scanResult.isSuccess()) {
+            standings = scanResult.asSuccess().getScoreboard().prepareScoreboard();
+         } else {
+            failures.add(scanResult.asFailure());
+         }
+      }
+      failures.sort((a, b) -> Long.compare(a.getLineNumber(), b.getLineNumber()));
+      TestUtils.doAssert(expected.equals(standings), "Valid rows must score as if the bad ones were never there");
+      TestUtils.doAssert(badLines.size() == failures.size(), String.format("Expecting <%d> failures, got <%d>", badLines.size(), failures.size()));
+      for (int i = 0; i < failures.size(); i++) {
+         TestUtils.doAssert(badLines.get(i) == failures.get(i).getLineNumber(), "Unexpected line number");
+         TestUtils.doAssert(badOffsets.get(i) == failures.get(i).getByteOffset(), "Unexpected byte offset");
+         TestUtils.doAssert(failures.get(i).getReason().contains(badRows.get(i).split(",")[0]) || failures.get(i).getReason().contains("score"), "Expecting a reason naming the row");
+      }
+      String quarantined = new String(quarantine.toByteArray(), StandardCharsets.UTF_8);
+      TestUtils.doAssert(String.join("\n", badRows.subList(0, badLines.size())).concat("\n").equals(quarantined), "Quarantine must hold the raw bad rows");
+
+      //one rejection over the budget aborts the scan
+      boolean aborted = false;
+      try {
+         spanProblem.handleInputStreamLenient(new ByteArrayInputStream(bytes), null, badLines.size() - 1);
+      } catch (RuntimeException e) {
+         aborted = e.getMessage().contains("Error budget");
+      }
+      TestUtils.doAssert(aborted, "Expecting the scan to abort once the error budget is spent");
+
+      //a failing sink is not a bad row: its exception ends the scan and nothing is quarantined
+      List<String> reasons = new ArrayList<>();
+      boolean propagated = false;
+      try {
+         new SpanProblem.MatchLineParser().withQuarantine((rowBytes, from, to, lineNumber, byteOffset, reason) -> reasons.add(reason))
+            .parse(new ByteArrayInputStream(clean), (rowBytes, leftOffset, leftLength, leftPoints, rightOffset, rightLength, rightPoints) -> {
+               throw new IllegalStateException("Sink failed");
+            });
+      } catch (IllegalStateException e) {
+         propagated = true;
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      TestUtils.doAssert(propagated && reasons.isEmpty(), String.format("Expecting the sink failure to propagate, quarantined <%s>", reasons));
+      System.out.println(String.format("Success: <%s>", "testLenientScanQuarantinesBadRows"));
+   }
+
+   private void testPartitionedScanMatchesPerPartitionScans() {
+      try {
+         List<String> partitions = Arrays.asList("Premier League 2023", "Serie A", " La Liga ");
+         List<byte[]> partitionBytes = new ArrayList<>();
+         for (int i = 0; i < partitions.size(); i++) {
+            partitionBytes.add(TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(2000 * (i + 1))).readAllBytes());
+         }
+         //interleave the leagues row by row
+         List<List<String>> lines = new ArrayList<>();
+         for (byte[] bytes : partitionBytes) {
+            lines.add(Arrays.asList(new String(bytes, StandardCharsets.UTF_8).split("\n")));
+         }
+         StringBuilder input = new StringBuilder();
+         Random random = new Random(15);
+         int[] next = new int[partitions.size()];
+         int remaining = lines.stream().mapToInt(List::size).sum();
+         while (0 < remaining) {
+            int partition = random.nextInt(partitions.size());
+            if (next[partition] < lines.get(partition).size()) {
+               input.append(partitions.get(partition)).append(',').append(lines.get(partition).get(next[partition]++)).append('\n');
+               remaining--;
+            }
+         }
+         byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+         SpanProblem spanProblem = TestUtils.newSpanProblem();
+         Path path = Files.createTempFile("span-partitioned", ".csv");
+         try {
+            Files.write(path, bytes);
+            List<Set<SpanProblem.ScanResult>> scans = new ArrayList<>();
+            scans.add(spanProblem.handleInputStreamPartitioned(new ByteArrayInputStream(bytes)));
+            scans.add(spanProblem.handleFilePartitioned(path));
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+               scans.add(spanProblem.handleFilePartitioned(fileChannel, 4096));
+            }
+            for (Set<SpanProblem.ScanResult> scanResults : scans) {
+               TestUtils.doAssert(partitions.size() == scanResults.size(), String.format("Expecting a result per partition, got <%d>", scanResults.size()));
+               for (SpanProblem.ScanResult scanResult : scanResults) {
+                  int partition = partitions.indexOf(scanResult.asSuccess().getPartition());
+                  if (-1 == partition) {
+                     partition = partitions.indexOf(" " + scanResult.asSuccess().getPartition() + " ");
+                  }
+                  TestUtils.doAssert(-1 != partition, String.format("Unexpected partition <%s>", scanResult.asSuccess().getPartition()));
+                  List<String> expected = spanProblem.handleInputStreamBytes(new ByteArrayInputStream(partitionBytes.get(partition)))
+                     .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+                  TestUtils.doAssert(expected.equals(scanResult.asSuccess().getScoreboard().prepareScoreboard()),
+                     String.format("Partition <%s> disagrees with scoring it alone", partitions.get(partition)));
+               }
+            }
+         } finally {
+            Files.deleteIfExists(path);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testPartitionedScanMatchesPerPartitionScans"));
+   }
+
+   private void testGzipScansMatchPlainScan() {
+      try {
+         byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(50000)).readAllBytes();
+         SpanProblem spanProblem = TestUtils.newSpanProblem();
+         List<String> expected = spanProblem.handleInputStreamBytes(new ByteArrayInputStream(bytes))
+            .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+
+         //members cut mid line, as pigz does
+         ByteArrayOutputStream multiMember = new ByteArrayOutputStream();
+         Random random = new Random(16);
+         int from = 0;
+         int secondMember = -1;
+         while (from < bytes.length) {
+            int to = Math.min(bytes.length, from + 1 + random.nextInt(bytes.length / 8));
+            try (GZIPOutputStream member = new GZIPOutputStream(multiMember)) {
+               member.write(bytes, from, to - from);
+               member.finish();
+            }
+            from = to;
+            if (-1 == secondMember) {
+               secondMember = multiMember.size();
+            }
+         }
+         ByteArrayOutputStream singleMember = new ByteArrayOutputStream();
+         try (GZIPOutputStream member = new GZIPOutputStream(singleMember)) {
+            member.write(bytes);
+         }
+
+         Path path = Files.createTempFile("span-gzip", ".csv.gz");
+         try {
+            for (byte[] gzipped : Arrays.asList(multiMember.toByteArray(), singleMember.toByteArray())) {
+               TestUtils.doAssert(expected.equals(spanProblem.handleGzipStream(new ByteArrayInputStream(gzipped))
+                  .iterator().next().asSuccess().getScoreboard().prepareScoreboard()), "Gzip stream disagrees with plain scan");
+               Files.write(path, gzipped);
+               for (int segments : new int[]{1, 2, 7, 64}) {
+                  try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                     TestUtils.doAssert(expected.equals(spanProblem.handleGzipFile(fileChannel, segments)
+                        .iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+                        String.format("Gzip file in <%d> segments disagrees with plain scan", segments));
+                  }
+               }
+            }
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+               TestUtils.doAssert(null == SpanProblem.GzipMembers.scan(fileChannel, 4), "A single member cannot be split");
+            }
+            Files.write(path, multiMember.toByteArray());
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+               TestUtils.doAssert(null != SpanProblem.GzipMembers.scan(fileChannel, 4), "Expecting members to be inflated in parallel");
+               //a search for a header does not run past the end of its segment
+               TestUtils.doAssert(-1 == SpanProblem.GzipMembers.nextCandidate(fileChannel, 1, secondMember), "Expecting no header before the second member");
+               TestUtils.doAssert(secondMember == SpanProblem.GzipMembers.nextCandidate(fileChannel, 1, secondMember + 1), "Expecting the second member header");
+            }
+            //a guessed member that ends inside its own header means the file cannot be split, it is not an error
+            ByteArrayOutputStream cutHeader = new ByteArrayOutputStream();
+            cutHeader.write(singleMember.toByteArray());
+            cutHeader.write(new byte[]{0x1f, (byte) 0x8b, 8, SpanProblem.GzipMembers.FEXTRA, 0, 0, 0, 0, 0, 0, (byte) 0xff, 0x7f});
+            Files.write(path, cutHeader.toByteArray());
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+               TestUtils.doAssert(null == SpanProblem.GzipMembers.scan(fileChannel, 2), "Expecting a cut header not to be split");
+            }
+         } finally {
+            Files.deleteIfExists(path);
+         }
+
+         //a tiny ring hands everything over in order
+         try (InputStream pipelined = new SpanProblem.PipelinedInputStream(new ByteArrayInputStream(bytes), 2, 7)) {
+            TestUtils.doAssert(Arrays.equals(bytes, pipelined.readAllBytes()), "Pipelined stream must return the source bytes");
+         }
+         //closing must not wait on a reader blocked in a live source, which does not answer interrupts
+         CountDownLatch sourceClosed = new CountDownLatch(1);
+         InputStream live = new InputStream() {
+            @Override
+            public int read() {
+               byte[] one = new byte[1];
+               return -1 == read(one, 0, 1) ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+               while (true) {
+                  try {
+                     sourceClosed.await();
+                     return -1;
+                  } catch (InterruptedException e) {
+                     //like a read of a pipe nobody writes to
+                  }
+               }
+            }
+
+            @Override
+            public void close() {
+               sourceClosed.countDown();
+            }
+         };
+         InputStream blocked = new SpanProblem.PipelinedInputStream(live);
+         Thread closer = new Thread(() -> {
+            try {
+               blocked.close();
+            } catch (IOException e) {
+               throw new RuntimeException(e);
+            }
+         });
+         closer.start();
+         try {
+            closer.join(10000);
+         } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+         }
+         TestUtils.doAssert(!closer.isAlive(), "Expecting close to return while the reader is blocked");
+         byte[] truncated = Arrays.copyOf(multiMember.toByteArray(), multiMember.size() / 2);
+         boolean failed = false;
+         try {
+            spanProblem.handleGzipStream(new ByteArrayInputStream(truncated));
+         } catch (RuntimeException e) {
+            failed = true;
+         }
+         TestUtils.doAssert(failed, "Expecting a truncated gzip stream to fail");
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testGzipScansMatchPlainScan"));
+   }
+
+   private void testRankingSortMatchesComparisonSort() {
+      Random random = new Random(17);
+      String[] prefixes = {"", "FC ", "FC Zurich ", "Real ", "\u00c9toile ", "\ud83d\ude00 ", "FC\u0000\u0000", "FC\u0000\u0000\u0000\u0000\u0000\u0000\u0000"};
+      for (int teamCount : new int[]{0, 1, 5, 1000, 50000}) {
+         SpanProblem.TeamDictionary teams = new SpanProblem.TeamDictionary();
+         while (teams.size() < teamCount) {
+            StringBuilder name = new StringBuilder(prefixes[random.nextInt(prefixes.length)]);
+            for (int i = random.nextInt(6); i >= 0; i--) {
+               name.append((char) ('a' + random.nextInt(8)));
+            }
+            teams.intern(name.toString().getBytes(StandardCharsets.UTF_8));
+         }
+         for (int spread : new int[]{0, 3, 300, -1}) {
+            long[] points = new long[teamCount];
+            for (int id = 0; id < teamCount; id++) {
+               //a spread of -1 stands for totals too wide for the counting sort
+               points[id] = -1 == spread ? random.nextLong() : 0 == spread ? 7 : random.nextInt(spread);
+            }
+            SpanProblem.Scoreboard scoreboard = new SpanProblem.Scoreboard(teams, points);
+            Integer[] expected = new Integer[teamCount];
+            for (int id = 0; id < teamCount; id++) {
+               expected[id] = id;
+            }
+            Arrays.sort(expected, (a, b) -> scoreboard.ranksBefore(a, b) ? -1 : scoreboard.ranksBefore(b, a) ? 1 : 0);
+            int[] ranked = SpanProblem.RankingSort.rank(teams, points);
+            TestUtils.doAssert(Arrays.equals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(), ranked),
+               String.format("Ranking of <%d> teams with spread <%d> disagrees with a comparison sort", teamCount, spread));
+            for (int limit : new int[]{0, 3, teamCount / 2, teamCount + 1}) {
+               TestUtils.doAssert(Arrays.equals(Arrays.copyOf(ranked, Math.min(limit, teamCount)), scoreboard.rankedIds(limit)),
+                  String.format("First <%d> of <%d> ranked teams disagree with the full ranking", limit, teamCount));
+            }
+         }
+      }
+      System.out.println(String.format("Success: <%s>", "testRankingSortMatchesComparisonSort"));
+   }
+
+   private void testOffHeapTableMatchesHeapScoreboard() {
+      try {
+         Path path = Files.createTempFile("span-off-heap", ".csv");
+         Path spillDirectory = Files.createTempDirectory("span-spill");
+         try {
+            for (int numGames : new int[]{0, 10, 1000, 100000}) {
+               Files.write(path, TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(numGames)).readAllBytes());
+               SpanProblem spanProblem = TestUtils.newSpanProblem();
+               ByteArrayOutputStream heapOutput = new ByteArrayOutputStream();
+               new SpanProblem.ScoreboardWriter(heapOutput).write(spanProblem.handleFileChunked(path).iterator().next().asSuccess().getScoreboard());
+               for (Path spill : new Path[]{null, spillDirectory}) {
+                  for (int pageSize : new int[]{256, SpanProblem.OffHeapMemory.defaultPageSize(spill)}) {
+                     try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        ByteArrayOutputStream offHeapOutput = new ByteArrayOutputStream();
+                        spanProblem.handleFileOffHeap(fileChannel, 4096, spill, pageSize, offHeapOutput);
+                        TestUtils.doAssert(Arrays.equals(heapOutput.toByteArray(), offHeapOutput.toByteArray()),
+                           String.format("Off heap standings of <%d> games with pages of <%d> and spill directory <%s> disagree with the heap", numGames, pageSize, spill));
+                     }
+                  }
+               }
+               try (Stream<Path> spilled = Files.list(spillDirectory)) {
+                  TestUtils.doAssert(0 == spilled.count(), "Expecting spill files to be deleted once the scan is done");
+               }
+            }
+            //the partials of chunks that did parse are closed when another chunk fails
+            StringBuilder malformed = new StringBuilder(new String(TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(1000)).readAllBytes(), StandardCharsets.UTF_8));
+            Files.write(path, malformed.insert(malformed.indexOf("\n", malformed.length() / 2) + 1, "Lions x, Snakes 1\n").toString().getBytes(StandardCharsets.UTF_8));
+            boolean failed = false;
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+               TestUtils.newSpanProblem().handleFileOffHeap(fileChannel, 4096, spillDirectory, 256, new ByteArrayOutputStream());
+            } catch (RuntimeException e) {
+               failed = true;
+            }
+            TestUtils.doAssert(failed, "Expecting a malformed row to fail the off heap scan");
+            try (Stream<Path> spilled = Files.list(spillDirectory)) {
+               TestUtils.doAssert(0 == spilled.count(), "Expecting spill files to be deleted once a scan fails");
+            }
+
+            try (SpanProblem.OffHeapTeamTable teams = new SpanProblem.OffHeapTeamTable(spillDirectory, 64)) {
+               for (int i = 0; i < 1000; i++) {
+                  byte[] name = ("Team " + i).getBytes(StandardCharsets.UTF_8);
+                  TestUtils.doAssert(i == teams.intern(name, 0, name.length), "Expecting dense ids in insertion order");
+                  teams.addPoints(i, i);
+               }
+               byte[] name = "Team 500".getBytes(StandardCharsets.UTF_8);
+               TestUtils.doAssert(500 == teams.find(name, 0, name.length) && 500 == teams.pointsOf(500) && "Team 500".equals(teams.nameOf(500)),
+                  "Expecting an interned team to be found with its points");
+               TestUtils.doAssert(-1 == teams.find(name, 0, 4), "Expecting an unknown team not to be found");
+               byte[] tooLong = new byte[64];
+               boolean rejected = false;
+               try {
+                  teams.intern(tooLong, 0, tooLong.length);
+               } catch (RuntimeException e) {
+                  rejected = true;
+               }
+               TestUtils.doAssert(rejected, "Expecting a name larger than a page to be rejected");
+            }
+         } finally {
+            Files.deleteIfExists(path);
+            try (Stream<Path> spilled = Files.list(spillDirectory)) {
+               spilled.forEach(spill -> spill.toFile().delete());
+            }
+            Files.deleteIfExists(spillDirectory);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testOffHeapTableMatchesHeapScoreboard"));
+   }
+
+   private void testPartialScoreboardsMergeAcrossProcesses() {
+      List<Path> paths = new ArrayList<>();
+      try {
+         byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(20000)).readAllBytes();
+         Path whole = Files.createTempFile("span-whole", ".csv");
+         paths.add(whole);
+         Files.write(whole, bytes);
+         ByteArrayOutputStream expected = new ByteArrayOutputStream();
+         new SpanProblem.ScoreboardWriter(expected).write(TestUtils.newSpanProblem().handleFileChunked(whole).iterator().next().asSuccess().getScoreboard());
+
+         //cut the input at line starts into shards of uneven size, the last one gzipped
+         int shardCount = 3;
+         List<Process> workers = new ArrayList<>();
+         List<Path> partials = new ArrayList<>();
+         String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+         int from = 0;
+         for (int shard = 0; shard < shardCount; shard++) {
+            int to = shard == shardCount - 1 ? bytes.length : from + bytes.length / (shard + 4);
+            while (to < bytes.length && '\n' != bytes[to - 1]) {
+               to++;
+            }
+            Path input = Files.createTempFile("span-shard", shard == shardCount - 1 ? ".csv.gz" : ".csv");
+            Path partial = Files.createTempFile("span-shard", ".partial");
+            paths.add(input);
+            paths.add(partial);
+            partials.add(partial);
+            try (OutputStream outputStream = shard == shardCount - 1 ? new GZIPOutputStream(Files.newOutputStream(input)) : Files.newOutputStream(input)) {
+               outputStream.write(bytes, from, to - from);
+            }
+            from = to;
+            workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "span.problem.SpanProblem", "--shard", input.toString(), partial.toString())
+               .inheritIO()
+               .start());
+         }
+         for (Process worker : workers) {
+            TestUtils.doAssert(0 == worker.waitFor(), "Expecting every worker to exit cleanly");
+         }
+
+         ByteArrayOutputStream merged = new ByteArrayOutputStream();
+         new SpanProblem.ScoreboardWriter(merged).write(TestUtils.newSpanProblem().handlePartials(partials).iterator().next().asSuccess().getScoreboard());
+         TestUtils.doAssert(Arrays.equals(expected.toByteArray(), merged.toByteArray()), "Merged partials disagree with a single run");
+
+         //merging is associative: fold two partials into one and merge that with the third, in another process
+         SpanProblem.ScoresAccumulator folded = new SpanProblem.ScoresAccumulator();
+         SpanProblem.PartialScoreboard.read(partials.get(2), folded);
+         SpanProblem.PartialScoreboard.read(partials.get(0), folded);
+         SpanProblem.PartialScoreboard.write(folded, partials.get(0));
+         Process merger = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "span.problem.SpanProblem", "--merge", partials.get(1).toString(), partials.get(0).toString())
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+         byte[] printed = merger.getInputStream().readAllBytes();
+         TestUtils.doAssert(0 == merger.waitFor(), "Expecting the merge process to exit cleanly");
+         TestUtils.doAssert(Arrays.equals(expected.toByteArray(), printed), "Standings printed by the merge process disagree with a single run");
+
+         boolean rejected = false;
+         try {
+            TestUtils.newSpanProblem().handlePartials(List.of(whole));
+         } catch (RuntimeException e) {
+            rejected = true;
+         }
+         TestUtils.doAssert(rejected, "Expecting a file that is not a partial scoreboard to be rejected");
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } finally {
+         paths.forEach(path -> path.toFile().delete());
+      }
+      System.out.println(String.format("Success: <%s>", "testPartialScoreboardsMergeAcrossProcesses"));
+   }
+
+   private void testWindowedStandingsMatchRebuiltWindows() {
+      try {
+         String[] rows = new String(TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(3000)).readAllBytes(), StandardCharsets.UTF_8).split("\n");
+         Random random = new Random(20);
+         for (boolean keyed : new boolean[]{false, true}) {
+            for (long span : new long[]{1, 7, 100, Long.MAX_VALUE}) {
+               SpanProblem.WindowedStandings windowed = new SpanProblem.WindowedStandings(span, keyed);
+               SpanProblem.MatchLineParser parser = new SpanProblem.MatchLineParser().withColumns(keyed ? 1 : 0);
+               long[] keys = new long[rows.length];
+               long round = 0;
+               for (int i = 0; i < rows.length; i++) {
+                  //several matches per round, with some rounds skipped
+                  round += random.nextInt(4) == 0 ? random.nextInt(3) : 0;
+                  keys[i] = keyed ? round : i;
+                  String key = i % 2 == 0 ? Long.toString(round) : LocalDate.ofEpochDay(round).toString();
+                  String row = keyed ? key + ", " + rows[i] : rows[i];
+                  parser.parse(new ByteArrayInputStream(row.getBytes(StandardCharsets.UTF_8)), windowed);
+                  if (i % 97 != 0 && i != rows.length - 1) {
+                     continue;
+                  }
+                  StringBuilder allRows = new StringBuilder();
+                  StringBuilder windowRows = new StringBuilder();
+                  for (int j = 0; j <= i; j++) {
+                     allRows.append(rows[j]).append('\n');
+                     if (keys[i] - keys[j] < span) {
+                        windowRows.append(rows[j]).append('\n');
+                     }
+                  }
+                  SpanProblem.ScoresAccumulator all = new SpanProblem.ScoresAccumulator();
+                  SpanProblem.ScoresAccumulator window = new SpanProblem.ScoresAccumulator();
+                  new SpanProblem.MatchLineParser().parse(new ByteArrayInputStream(allRows.toString().getBytes(StandardCharsets.UTF_8)), all);
+                  new SpanProblem.MatchLineParser().parse(new ByteArrayInputStream(windowRows.toString().getBytes(StandardCharsets.UTF_8)), window);
+                  //teams that have left the window stay on with no points
+                  SpanProblem.ScoresAccumulator expected = new SpanProblem.ScoresAccumulator();
+                  for (int id = 0; id < all.teams.size(); id++) {
+                     byte[] name = all.teams.nameOf(id).getBytes(StandardCharsets.UTF_8);
+                     int windowId = window.teams.find(name, 0, name.length);
+                     expected.addPoints(expected.teams.intern(name), -1 == windowId ? 0 : window.pointsOf(windowId));
+                  }
+                  TestUtils.doAssert(expected.buildScoreboard().prepareScoreboard().equals(windowed.getStandings().top(Integer.MAX_VALUE)),
+                     String.format("Window of span <%d> (keyed <%b>) after <%d> matches disagrees with a rebuild", span, keyed, i + 1));
+               }
+            }
+         }
+
+         byte[] bytes = String.join("\n", rows).getBytes(StandardCharsets.UTF_8);
+         TestUtils.doAssert(TestUtils.newSpanProblem().handleInputStreamBytes(new ByteArrayInputStream(bytes)).iterator().next().asSuccess().getScoreboard().prepareScoreboard()
+               .equals(TestUtils.newSpanProblem().handleInputStreamWindowed(new ByteArrayInputStream(bytes), Long.MAX_VALUE, false).iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+            "Expecting an unbounded window to score the whole input");
+
+         boolean rejected = false;
+         try {
+            TestUtils.newSpanProblem().handleInputStreamWindowed(new ByteArrayInputStream(("2, " + rows[0] + "\n1, " + rows[1]).getBytes(StandardCharsets.UTF_8)), 5, true);
+         } catch (RuntimeException e) {
+            rejected = true;
+         }
+         TestUtils.doAssert(rejected, "Expecting a decreasing window key to be rejected");
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testWindowedStandingsMatchRebuiltWindows"));
+   }
+
+   private void testPipelinedStagesMatchByteParser() {
+      try {
+         for (int numGames : new int[]{0, 1, 1000, 100000}) {
+            byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(numGames)).readAllBytes();
+            //also without the final newline
+            for (byte[] input : new byte[][]{bytes, Arrays.copyOf(bytes, Math.max(0, bytes.length - 1))}) {
+               List<String> expected = TestUtils.newSpanProblem().handleInputStreamBytes(new ByteArrayInputStream(input))
+                  .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+               for (int[] stages : new int[][]{{1, 1}, {3, 2}, {2, 5}}) {
+                  for (int batchSize : new int[]{7, 4096, SpanProblem.FlowPipeline.DEFAULT_BATCH_SIZE}) {
+                     Set<SpanProblem.ScanResult> scanResults = TestUtils.newSpanProblem()
+                        .handleInputStreamPipelined(new ByteArrayInputStream(input), stages[0], stages[1], batchSize);
+                     TestUtils.doAssertScanIsSuccess(scanResults.iterator());
+                     TestUtils.doAssert(expected.equals(scanResults.iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+                        String.format("Pipeline of <%d> parsers and <%d> shards over batches of <%d> disagrees over <%d> rows", stages[0], stages[1], batchSize, numGames));
+                  }
+               }
+            }
+         }
+
+         byte[] malformed = "Lions 3, Snakes 3\nLions 3 Snakes 3\nLions 3, Snakes 3\n".getBytes(StandardCharsets.UTF_8);
+         boolean rejected = false;
+         try {
+            TestUtils.newSpanProblem().handleInputStreamPipelined(new ByteArrayInputStream(malformed), 2, 2, 16);
+         } catch (RuntimeException e) {
+            rejected = e.getMessage().contains("Lions 3 Snakes 3");
+         }
+         TestUtils.doAssert(rejected, "Expecting a malformed row to fail the pipeline with the row in the message");
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testPipelinedStagesMatchByteParser"));
+   }
+
+   private void testDeduplicatedScanDropsReplayedRows() {
+      try {
+         List<String> rows = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(
+            new String(TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(20000)).readAllBytes(), StandardCharsets.UTF_8).split("\n"))));
+         List<String> expected = TestUtils.newSpanProblem().handleInputStreamBytes(new ByteArrayInputStream(String.join("\n", rows).getBytes(StandardCharsets.UTF_8)))
+            .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+         //replay two segments after "reconnects", the second one respaced
+         List<String> feed = new ArrayList<>();
+         List<String> ids = new ArrayList<>();
+         int n = rows.size();
+         int[][] segments = {{0, 3 * n / 5}, {2 * n / 5, 3 * n / 5}, {3 * n / 5, n}, {n / 50, n / 5}};
+         for (int segment = 0; segment < segments.length; segment++) {
+            for (int i = segments[segment][0]; i < segments[segment][1]; i++) {
+               String row = 3 == segment ? "  " + rows.get(i).replace(", ", " ,  ") : rows.get(i);
+               feed.add(row);
+               ids.add(String.format("m-%d, %s", i, row));
+            }
+         }
+         long duplicates = feed.size() - n;
+
+         for (boolean byMatchId : new boolean[]{false, true}) {
+            for (long expectedMatches : new long[]{0, 100 * rows.size()}) {
+               SpanProblem.Stats.INSTANCE.reset();
+               byte[] input = String.join("\n", byMatchId ? ids : feed).getBytes(StandardCharsets.UTF_8);
+               List<String> deduplicated = TestUtils.newSpanProblem().handleInputStreamDeduplicated(new ByteArrayInputStream(input), byMatchId, expectedMatches)
+                  .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+               TestUtils.doAssert(expected.equals(deduplicated),
+                  String.format("Deduplicated feed (by id <%b>, expecting <%d> matches) disagrees with the feed without replays", byMatchId, expectedMatches));
+               TestUtils.doAssert(duplicates == SpanProblem.Stats.INSTANCE.getDuplicateRows(), "Expecting every replayed row to be counted");
+               TestUtils.doAssert(feed.size() == SpanProblem.Stats.INSTANCE.getRowsProcessed(), "Expecting dropped rows to be processed too");
+               TestUtils.doAssert(input.length == SpanProblem.Stats.INSTANCE.getBytesRead(), "Expecting every byte to be read");
+            }
+         }
+
+         //the Bloom filter stays close to its false positive rate at the matches it was sized for
+         Random random = new Random(22);
+         int matches = 200000;
+         SpanProblem.MatchFingerprints bloom = SpanProblem.MatchFingerprints.bloom(matches);
+         SpanProblem.MatchFingerprints exact = SpanProblem.MatchFingerprints.exact();
+         for (int i = 0; i < matches; i++) {
+            long fingerprint = random.nextLong();
+            bloom.add(fingerprint);
+            TestUtils.doAssert(exact.add(fingerprint) && !exact.add(fingerprint), "Expecting the exact set to know a fingerprint once added");
+         }
+         //each probe is remembered as well, so only a few keep the filter near the load it was sized for
+         int probes = matches / 20;
+         int falsePositives = 0;
+         for (int i = 0; i < probes; i++) {
+            falsePositives += bloom.add(random.nextLong()) ? 0 : 1;
+         }
+         TestUtils.doAssert(falsePositives < probes / 1000, String.format("Too many false positives <%d> of <%d>", falsePositives, probes));
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testDeduplicatedScanDropsReplayedRows"));
+   }
+
+   private void testScoringRulesRankByTieBreakers() {
+      try {
+         //level on points, split by goal difference, then by goals for; 2 points a win
+         String season = String.join("\n", "Lions 3, Snakes 1", "Tarantulas 2, FC Awesome 0", "Lions 1, FC Awesome 1",
+            "Tarantulas 3, Snakes 3", "Snakes 4, FC Awesome 0", "Grouches 0, Lions 0");
+         List<String> ruled = TestUtils.newSpanProblem().handleInputStreamWithRules(new ByteArrayInputStream(season.getBytes(StandardCharsets.UTF_8)),
+            SpanProblem.ScoringRules.parse("2/1/0", "gd,gf")).iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+         TestUtils.doAssert(Arrays.asList("1. Lions, 4 pts", "2. Snakes, 3 pts", "3. Tarantulas, 3 pts", "4. Grouches, 1 pts", "5. FC Awesome, 1 pts").equals(ruled),
+            String.format("Unexpected standings by goal difference <%s>", ruled));
+
+         byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(20000)).readAllBytes();
+         String[] rows = new String(bytes, StandardCharsets.UTF_8).split("\n");
+         Path path = Files.createTempFile("span-rules", ".csv");
+         try {
+            Files.write(path, bytes);
+            SpanProblem.ScoringRules.TieBreaker[][] tieBreakers = {{},
+               {SpanProblem.ScoringRules.TieBreaker.GOAL_DIFFERENCE, SpanProblem.ScoringRules.TieBreaker.GOALS_FOR},
+               {SpanProblem.ScoringRules.TieBreaker.GOALS_AGAINST}};
+            for (SpanProblem.ScoringRules.TieBreaker[] tieBreaker : tieBreakers) {
+               SpanProblem.ScoringRules rules = new SpanProblem.ScoringRules(2, 1, 0, tieBreaker);
+               //the keys of each team, worked out row by row: points, goals for, goals against
+               Map<String, long[]> totals = new HashMap<>();
+               for (String row : rows) {
+                  SpanProblem.TeamAndScoresPair pair = SpanProblem.extractTeamAndScores.apply(row);
+                  int left = pair.left.score.points;
+                  int right = pair.right.score.points;
+                  long[] leftTotals = totals.computeIfAbsent(pair.left.team.name, name -> new long[3]);
+                  long[] rightTotals = totals.computeIfAbsent(pair.right.team.name, name -> new long[3]);
+                  leftTotals[0] += left == right ? 1 : left > right ? 2 : 0;
+                  rightTotals[0] += left == right ? 1 : right > left ? 2 : 0;
+                  leftTotals[1] += left;
+                  leftTotals[2] += right;
+                  rightTotals[1] += right;
+                  rightTotals[2] += left;
+               }
+               Comparator<String> byKeys = Comparator.comparingLong((String name) -> -totals.get(name)[0]);
+               for (SpanProblem.ScoringRules.TieBreaker key : tieBreaker) {
+                  byKeys = byKeys.thenComparingLong(name -> -key.keyOf(totals.get(name)[1], totals.get(name)[2]));
+               }
+               Comparator<String> byRank = byKeys;
+               byKeys = byKeys.thenComparing(name -> name.getBytes(StandardCharsets.UTF_8), Arrays::compareUnsigned);
+               List<String> names = new ArrayList<>(totals.keySet());
+               names.sort(byKeys);
+               List<String> expected = new ArrayList<>();
+               int rank = 0;
+               for (int i = 0; i < names.size(); i++) {
+                  if (0 == i || 0 != byRank.compare(names.get(i - 1), names.get(i))) {
+                     rank++;
+                  }
+                  expected.add(SpanProblem.Scoreboard.formatRow(rank, names.get(i), totals.get(names.get(i))[0]));
+               }
+
+               SpanProblem.Scoreboard streamed = TestUtils.newSpanProblem().handleInputStreamWithRules(new ByteArrayInputStream(bytes), rules)
+                  .iterator().next().asSuccess().getScoreboard();
+               TestUtils.doAssert(expected.equals(streamed.prepareScoreboard()),
+                  String.format("Standings with tie-breakers <%s> disagree with a comparison sort", Arrays.toString(tieBreaker)));
+               try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                  TestUtils.doAssert(expected.equals(TestUtils.newSpanProblem().handleFileWithRules(fileChannel, 4096, rules)
+                        .iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+                     String.format("Chunked standings with tie-breakers <%s> disagree with the stream", Arrays.toString(tieBreaker)));
+               }
+               ByteArrayOutputStream written = new ByteArrayOutputStream();
+               new SpanProblem.ScoreboardWriter(written).write(streamed, 10);
+               String firstRows = expected.subList(0, 10).stream().map(row -> row + System.lineSeparator()).collect(Collectors.joining());
+               TestUtils.doAssert(firstRows.equals(written.toString(StandardCharsets.UTF_8)),
+                  String.format("Written top rows with tie-breakers <%s> disagree with the prepared ones", Arrays.toString(tieBreaker)));
+            }
+         } finally {
+            Files.deleteIfExists(path);
+         }
+
+         SpanProblem.ScoresAccumulator plain = SpanProblem.ScoringRules.DEFAULT.newAccumulator();
+         TestUtils.doAssert(SpanProblem.ScoresAccumulator.class == plain.getClass(), "Expecting the default rules to use the plain accumulator");
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testScoringRulesRankByTieBreakers"));
+   }
+
+   private void testMatchIndexAnswersLikeRescans() {
+      try {
+         String season = String.join("\n", "Lions 3, Snakes 1", "Tarantulas 2, FC Awesome 0", "Lions 1, FC Awesome 1",
+            "Snakes 2, Lions 2", "Snakes 4, FC Awesome 0", "Lions 0, Snakes 1");
+         SpanProblem.MatchIndex small = TestUtils.newSpanProblem().handleInputStreamIndexed(new ByteArrayInputStream(season.getBytes(StandardCharsets.UTF_8)));
+         TestUtils.doAssert(Arrays.equals(new int[]{0, 3, 5}, small.headToHead("Lions", "Snakes")), "Unexpected head-to-head of Lions and Snakes");
+         TestUtils.doAssert("Lions: 3 played, 1 won, 1 drawn, 1 lost, 5 goals for, 4 against, 4 pts".equals(small.recordOf("Lions", small.headToHead("Lions", "Snakes"))),
+            String.format("Unexpected head-to-head record <%s>", small.recordOf("Lions", small.headToHead("Lions", "Snakes"))));
+         TestUtils.doAssert(0 == small.matchesOf("Grouches").length, "Expecting no matches for an unknown team");
+
+         //a small pool of teams so every pair meets many times
+         Random random = new Random(24);
+         String[] teams = new String[40];
+         for (int i = 0; i < teams.length; i++) {
+            teams[i] = "Team " + i;
+         }
+         List<String> rows = new ArrayList<>();
+         for (int i = 0; i < 20000; i++) {
+            int left = random.nextInt(teams.length);
+            int right = (left + 1 + random.nextInt(teams.length - 1)) % teams.length;
+            rows.add(String.format("%s %d, %s %d", teams[left], random.nextInt(6), teams[right], random.nextInt(6)));
+         }
+         byte[] bytes = String.join("\n", rows).getBytes(StandardCharsets.UTF_8);
+         Path path = Files.createTempFile("span-index", ".csv");
+         try {
+            Files.write(path, bytes);
+            SpanProblem.MatchIndex streamed = TestUtils.newSpanProblem().handleInputStreamIndexed(new ByteArrayInputStream(bytes));
+            SpanProblem.MatchIndex chunked;
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+               chunked = TestUtils.newSpanProblem().handleFileIndexed(fileChannel, 4096);
+            }
+            TestUtils.doAssert(rows.size() == streamed.matchCount() && rows.size() == chunked.matchCount(), "Expecting every row indexed");
+            for (SpanProblem.MatchIndex matchIndex : Arrays.asList(streamed, chunked)) {
+               for (int i = 0; i < teams.length; i++) {
+                  String team = teams[i];
+                  List<String> history = rows.stream().filter(row -> row.startsWith(team + " ") || row.contains(", " + team + " ")).collect(Collectors.toList());
+                  TestUtils.doAssert(history.equals(Arrays.stream(matchIndex.matchesOf(team)).mapToObj(matchIndex::formatMatch).collect(Collectors.toList())),
+                     String.format("History of <%s> disagrees with a rescan", team));
+                  String opponent = teams[(i * 7 + 3) % teams.length];
+                  List<String> headToHead = history.stream().filter(row -> row.startsWith(opponent + " ") || row.contains(", " + opponent + " ")).collect(Collectors.toList());
+                  TestUtils.doAssert(headToHead.equals(Arrays.stream(matchIndex.headToHead(team, opponent)).mapToObj(matchIndex::formatMatch).collect(Collectors.toList())),
+                     String.format("Head-to-head of <%s> and <%s> disagrees with a rescan", team, opponent));
+               }
+            }
+         } finally {
+            Files.deleteIfExists(path);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testMatchIndexAnswersLikeRescans"));
+   }
+
+   private void testBatchOfFilesMatchesSeparateScans() {
+      try {
+         Path directory = Files.createTempDirectory("span-batch");
+         try {
+            List<byte[]> contents = new ArrayList<>();
+            for (int i = 0; i < 24; i++) {
+               byte[] bytes = TestUtils.toInputStream.apply(TestUtils.randomAndRandom.apply(50 + i * 20)).readAllBytes();
+               contents.add(bytes);
+               if (0 == i % 4) {
+                  try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(directory.resolve(String.format("day-%02d.csv.gz", i))))) {
+                     outputStream.write(bytes);
+                  }
+               } else {
+                  Files.write(directory.resolve(String.format("day-%02d.csv", i)), bytes);
+               }
+            }
+            //rows of the files back to back, each file ending in a line break of its own
+            ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+            for (byte[] bytes : contents) {
+               concatenated.write(bytes);
+               concatenated.write('\n');
+            }
+            List<String> expected = TestUtils.newSpanProblem().handleInputStreamBytes(new ByteArrayInputStream(concatenated.toByteArray()))
+               .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+            Set<SpanProblem.ScanResult> combined = TestUtils.newSpanProblem().handleFiles(SpanProblem.listFiles(directory.toString()), false, 3);
+            TestUtils.doAssert(1 == combined.size() && expected.equals(combined.iterator().next().asSuccess().getScoreboard().prepareScoreboard()),
+               "Combined batch scoreboard disagrees with a scan of the concatenated files");
+
+            Set<SpanProblem.ScanResult> perFile = TestUtils.newSpanProblem().handleFiles(directory.resolve("*.csv").toString(), true);
+            TestUtils.doAssert(18 == perFile.size(), String.format("Expecting a scoreboard for each plain file, got <%d>", perFile.size()));
+            for (SpanProblem.ScanResult scanResult : perFile) {
+               String partition = scanResult.asSuccess().getPartition();
+               byte[] bytes = contents.get(Integer.parseInt(partition.substring("day-".length(), "day-".length() + 2)));
+               List<String> file = TestUtils.newSpanProblem().handleInputStreamBytes(new ByteArrayInputStream(bytes))
+                  .iterator().next().asSuccess().getScoreboard().prepareScoreboard();
+               TestUtils.doAssert(file.equals(scanResult.asSuccess().getScoreboard().prepareScoreboard()),
+                  String.format("Batch scoreboard of <%s> disagrees with a scan of the file", partition));
+            }
+
+            //a file that cannot be read is named in the failure
+            Files.write(directory.resolve("day-99.csv.gz"), "not gzip".getBytes(StandardCharsets.UTF_8));
+            String failure = null;
+            try {
+               TestUtils.newSpanProblem().handleFiles(directory.toString(), false);
+            } catch (RuntimeException e) {
+               failure = e.getMessage();
+            }
+            TestUtils.doAssert(null != failure && failure.contains("day-99.csv.gz"), String.format("Expecting the failed file to be named, got <%s>", failure));
+         } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+               for (Path file : files.collect(Collectors.toList())) {
+                  Files.deleteIfExists(file);
+               }
+            }
+            Files.deleteIfExists(directory);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      }
+      System.out.println(String.format("Success: <%s>", "testBatchOfFilesMatchesSeparateScans"));
+   }
 }
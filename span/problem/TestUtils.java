@@ -4,8 +4,17 @@ import java.io.ByteArrayInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -267,7 +276,181 @@ public class TestUtils {
          String.format("Not expecting any more values"));
    }
 
+   /**
+    * Streams a synthetic dataset of any size straight to a file. Rows are produced in fixed size blocks, each from its
+    * own seeded generator, so blocks can be built in parallel and the output only depends on the seed and the sizes,
+    * never on the number of threads.
+    */
+   static class DatasetGenerator {
+
+      static final int BLOCK_ROWS = 1 << 16;
+
+      private static final char[] LETTERS = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+      final long rows;
+      final int teamCount;
+      final long seed;
+      final int minNameLength;
+      final int maxNameLength;
+      final int threads;
+
+      private final byte[][] teamNames;
+
+      DatasetGenerator(long rows, int teamCount, long seed, int minNameLength, int maxNameLength, int threads) {
+         TestUtils.doAssert(2 <= teamCount, "Expecting at least two teams");
+         TestUtils.doAssert(1 <= minNameLength && minNameLength <= maxNameLength, "Expecting 1 <= min name length <= max name length");
+         this.rows = rows;
+         this.teamCount = teamCount;
+         this.seed = seed;
+         this.minNameLength = minNameLength;
+         this.maxNameLength = maxNameLength;
+         this.threads = Math.max(1, threads);
+         this.teamNames = new byte[teamCount][];
+         for (int team = 0; team < teamCount; team++) {
+            this.teamNames[team] = teamName(team).getBytes(StandardCharsets.UTF_8);
+         }
+      }
+
+      /**
+       * A capitalised name of random words with a length drawn uniformly from [min, max]. The name always ends with the
+       * team index written as a fixed width run of letters, so names never collide; very large team counts can make
+       * that run, and so the name, longer than max.
+       */
+      String teamName(int team) {
+         SplittableRandom random = new SplittableRandom(mix(seed ^ mix(team + 1L)));
+         char[] suffix = new char[suffixWidth()];
+         int remaining = team;
+         for (int i = suffix.length - 1; i >= 0; i--) {
+            suffix[i] = LETTERS[remaining % LETTERS.length];
+            remaining /= LETTERS.length;
+         }
+
+         int length = minNameLength + random.nextInt(maxNameLength - minNameLength + 1);
+         int prefixLength = length - suffix.length;
+         StringBuilder name = new StringBuilder();
+         for (int i = 0; i < prefixLength; i++) {
+            boolean startOfWord = 0 == i || ' ' == name.charAt(i - 1);
+            //a space may end a word as long as another letter follows it
+            if (!startOfWord && i + 1 < prefixLength && 0 == random.nextInt(6)) {
+               name.append(' ');
+            } else {
+               char letter = LETTERS[random.nextInt(LETTERS.length)];
+               name.append(startOfWord ? Character.toUpperCase(letter) : letter);
+            }
+         }
+         if (0 == name.length()) {
+            suffix[0] = Character.toUpperCase(suffix[0]);
+         }
+         return name.append(suffix).toString();
+      }
+
+      private static long mix(long value) {
+         value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+         value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+         return value ^ (value >>> 31);
+      }
+
+      private int suffixWidth() {
+         int width = 1;
+         for (long capacity = LETTERS.length; capacity < teamCount; capacity *= LETTERS.length) {
+            width++;
+         }
+         return width;
+      }
+
+      void writeTo(Path path) throws IOException {
+         long blocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+         ExecutorService executorService = Executors.newFixedThreadPool(threads);
+         try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            //at most two blocks per thread are in flight, which bounds memory whatever the row count
+            Deque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+            long nextBlock = 0;
+            while (nextBlock < blocks || !inFlight.isEmpty()) {
+               while (nextBlock < blocks && inFlight.size() < threads * 2) {
+                  long block = nextBlock++;
+                  inFlight.add(executorService.submit(() -> renderBlock(block)));
+               }
+               ByteBuffer byteBuffer = inFlight.poll().get();
+               while (byteBuffer.hasRemaining()) {
+                  fileChannel.write(byteBuffer);
+               }
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+         } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+         } finally {
+            executorService.shutdownNow();
+         }
+      }
+
+      ByteBuffer renderBlock(long block) {
+         SplittableRandom random = new SplittableRandom(mix(seed + mix(-(block + 1))));
+         long first = block * BLOCK_ROWS;
+         int count = (int) Math.min(BLOCK_ROWS, rows - first);
+         byte[] bytes = new byte[count * (2 * maxNameLength + 16)];
+         int position = 0;
+         for (int row = 0; row < count; row++) {
+            int left = random.nextInt(teamCount);
+            int right = (left + 1 + random.nextInt(teamCount - 1)) % teamCount;
+            int needed = teamNames[left].length + teamNames[right].length + 8;
+            if (position + needed > bytes.length) {
+               bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + needed));
+            }
+            position = appendTeamAndScore(bytes, position, teamNames[left], random.nextInt(7));
+            bytes[position++] = ',';
+            bytes[position++] = ' ';
+            position = appendTeamAndScore(bytes, position, teamNames[right], random.nextInt(7));
+            bytes[position++] = '\n';
+         }
+         return ByteBuffer.wrap(bytes, 0, position);
+      }
+
+      private static int appendTeamAndScore(byte[] bytes, int position, byte[] name, int score) {
+         System.arraycopy(name, 0, bytes, position, name.length);
+         position += name.length;
+         bytes[position++] = ' ';
+         bytes[position++] = (byte) ('0' + score);
+         return position;
+      }
+
+      /**
+       * Parses {@code --rows N --teams N --seed N --name-length MIN:MAX --threads N --out PATH}; only rows is required.
+       */
+      static void main(String[] args) {
+         Map<String, String> options = new HashMap<>();
+         for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+         }
+         if (!options.containsKey("--rows") || 0 != args.length % 2) {
+            System.out.println(String.format("Expecting --rows N [--teams N] [--seed N] [--name-length MIN:MAX] [--threads N] [--out PATH]"));
+            return;
+         }
+         String[] nameLength = options.getOrDefault("--name-length", "6:24").split(":");
+         DatasetGenerator datasetGenerator = new DatasetGenerator(
+            Long.parseLong(options.get("--rows")),
+            Integer.parseInt(options.getOrDefault("--teams", "10")),
+            Long.parseLong(options.getOrDefault("--seed", "0")),
+            Integer.parseInt(nameLength[0]),
+            Integer.parseInt(nameLength[nameLength.length - 1]),
+            Integer.parseInt(options.getOrDefault("--threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+         Path path = Paths.get(options.getOrDefault("--out",
+            String.format("%s/%s", System.getProperty("java.io.tmpdir"), "data.csv")));
+         try {
+            datasetGenerator.writeTo(path);
+         } catch (IOException e) {
+            throw new RuntimeException(e);
+         }
+         System.out.println(String.format("Wrote <%d> rows to <%s>", datasetGenerator.rows, path));
+      }
+   }
+
    public static void main(String[] args) {
+      if (0 < args.length && args[0].startsWith("--")) {
+         DatasetGenerator.main(args);
+         return;
+      }
       if (1 != args.length) {
          System.out.println(String.format("Expecting an (integer) argument indicating how many rows to generate"));
          return;
@@ -277,7 +460,7 @@ public class TestUtils {
          try {
             int count = Integer.parseInt(args[0]);
             if (100000 < count) {
-               System.out.println(String.format("Refusing to generate <%d> rows", count));
+               System.out.println(String.format("Refusing to generate <%d> rows, use --rows to stream larger datasets", count));
                return;
             }
             numGames.getAndSet(count);